@@ -0,0 +1,82 @@
+package benchmark;
+
+import compression.CompressionStrategy;
+import model.Codec;
+import model.FileEntry;
+import org.openjdk.jmh.annotations.*;
+import stream.ParallelCompressOutputStream;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation of ParallelCompressOutputStream in steady state. One stream is kept open for the whole
+ * iteration, and every operation writes one chunk to it, so the setup of the stream is not measured.
+ * Run with -prof gc and compare gc.alloc.rate.norm with the chunk size, for example
+ * {@code java -jar target/benchmarks.jar AllocationBenchmark -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class AllocationBenchmark {
+
+	@Param({"DEFLATE", "LZ4"})
+	public Codec codec;
+
+	@Param({"text", "random"})
+	public String content;
+
+	@Param({"131072"})
+	public int chunkSize;
+
+	private byte[] chunk;
+	private ParallelCompressOutputStream pcos;
+
+	@Setup(Level.Trial)
+	public void setupChunk() {
+		chunk = new byte[chunkSize];
+		Random random = new Random(0);
+		if(content.equals("random")) {
+			random.nextBytes(chunk);
+			return;
+		}
+		String[] words = {"the ", "archive ", "block ", "compress ", "parallel ", "stream ", "of ", "and "};
+		int off = 0;
+		while(off < chunk.length) {
+			byte[] word = words[random.nextInt(words.length)].getBytes();
+			int n = Math.min(word.length, chunk.length - off);
+			System.arraycopy(word, 0, chunk, off, n);
+			off += n;
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void openStream() throws IOException {
+		pcos = ParallelCompressOutputStream.builder()
+			.chunkSize(chunkSize)
+			.compressionStrategy(CompressionStrategy.forCodec(codec))
+			.threads(2)
+			.build(new CountingOutputStream());
+		pcos.putNextEntry(new FileEntry("stream", FileEntry.FileType.FILE, Long.MAX_VALUE));
+	}
+
+	@TearDown(Level.Iteration)
+	public void closeStream() throws IOException, InterruptedException, NoSuchAlgorithmException {
+		pcos.closeEntry();
+		pcos.finish();
+		pcos.close();
+	}
+
+	/**
+	 * Write one chunk, which is compressed and written by the threads of the stream.
+	 */
+	@Benchmark
+	public void writeChunk() throws IOException {
+		pcos.write(chunk);
+	}
+}
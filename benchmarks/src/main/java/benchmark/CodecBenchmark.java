@@ -0,0 +1,109 @@
+package benchmark;
+
+import compression.CompressionStrategy;
+import decompression.DecompressionStrategy;
+import model.Codec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Compares block compression and decompression throughput of the codecs on the files of a corpus.
+ * The corpus is cut into blocks of the default chunk size of ParallelCompressOutputStream.
+ * Run from the benchmarks directory, so the resources corpus points to the test resources of youngzip.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+	private static final int BLOCK_SIZE = 1024*128;
+
+	@Param({"resources", "text", "random"})
+	public String corpus;
+
+	@Param({"DEFLATE", "LZ4"})
+	public Codec codec;
+
+	private CompressionStrategy compressionStrategy;
+	private DecompressionStrategy decompressionStrategy;
+	private List<byte[]> blocks;
+	private List<byte[]> compressedBlocks;
+
+	@Setup
+	public void setup() throws IOException {
+		compressionStrategy = CompressionStrategy.forCodec(codec);
+		decompressionStrategy = DecompressionStrategy.forCodec(codec);
+		blocks = readBlocks(Corpora.get(corpus), BLOCK_SIZE);
+		compressedBlocks = new ArrayList<>();
+		long original = 0;
+		long compressed = 0;
+		for(byte[] block : blocks) {
+			byte[] compressedBlock = compressionStrategy.compress(block);
+			compressedBlocks.add(compressedBlock);
+			original += block.length;
+			compressed += compressedBlock.length;
+		}
+		System.out.println(codec + " ratio : " + original + " => " + compressed);
+	}
+
+	/**
+	 * Compress every block of the corpus. Score is corpus passes per second.
+	 */
+	@Benchmark
+	public long compress() {
+		long size = 0;
+		for(byte[] block : blocks) {
+			size += compressionStrategy.compress(block).length;
+		}
+		return size;
+	}
+
+	/**
+	 * Decompress every block of the corpus. Score is corpus passes per second.
+	 */
+	@Benchmark
+	public long decompress() throws DataFormatException {
+		long size = 0;
+		for(int i=0;i<blocks.size();i++) {
+			size += decompressionStrategy.decompress(compressedBlocks.get(i), blocks.get(i).length).length;
+		}
+		return size;
+	}
+
+	/**
+	 * Read all regular files under the directory in name order and cut them into blocks.
+	 */
+	static List<byte[]> readBlocks(Path directory, int blockSize) throws IOException {
+		List<Path> paths = Corpora.files(directory);
+		if(paths.isEmpty()) {
+			throw new IOException("no files in corpus " + directory.toAbsolutePath());
+		}
+		List<byte[]> blocks = new ArrayList<>();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(blockSize);
+		for(Path path : paths) {
+			buffer.write(Files.readAllBytes(path));
+			byte[] data = buffer.toByteArray();
+			int off = 0;
+			for(;off + blockSize <= data.length;off += blockSize) {
+				blocks.add(Arrays.copyOfRange(data, off, off + blockSize));
+			}
+			buffer.reset();
+			buffer.write(data, off, data.length - off);
+		}
+		if(buffer.size() > 0) {
+			blocks.add(buffer.toByteArray());
+		}
+		return blocks;
+	}
+}
@@ -0,0 +1,148 @@
+package benchmark;
+
+import model.FileEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generated benchmark corpora. Every corpus is generated once with a fixed seed into target/corpus
+ * and reused by later runs.
+ *
+ * text     natural language like text of 16 MB in 4 files
+ * random   incompressible random data of 16 MB in 4 files
+ * tiny     10000 files of 16 to 1024 bytes of text in 100 directories
+ * huge     a single file of 256 MB of text
+ * resources text corpus of youngzip test resources
+ */
+final class Corpora {
+	private static final Path ROOT = Paths.get("target", "corpus");
+	private static final String COMPLETE_MARKER = ".complete";
+
+	/**
+	 * An entry of a corpus loaded into memory.
+	 */
+	static class Entry {
+		final FileEntry fileEntry;
+		final byte[] data;
+
+		Entry(FileEntry fileEntry, byte[] data) {
+			this.fileEntry = fileEntry;
+			this.data = data;
+		}
+	}
+
+	private Corpora() {
+	}
+
+	/**
+	 * Return the directory of the corpus, generating it first if needed.
+	 */
+	static synchronized Path get(String name) throws IOException {
+		if(name.equals("resources")) {
+			return Paths.get("..", "src", "test", "resources", "text");
+		}
+		Path directory = ROOT.resolve(name);
+		if(Files.exists(directory.resolve(COMPLETE_MARKER))) {
+			return directory;
+		}
+		Files.createDirectories(directory);
+		Random random = new Random(name.hashCode());
+		switch(name) {
+			case "text":
+				for(int i=0;i<4;i++) writeText(directory.resolve("text" + i + ".txt"), 1024*1024*4, random);
+				break;
+			case "random":
+				for(int i=0;i<4;i++) writeRandom(directory.resolve("random" + i + ".bin"), 1024*1024*4, random);
+				break;
+			case "tiny":
+				for(int i=0;i<10000;i++) {
+					Path dir = directory.resolve("dir" + (i % 100));
+					Files.createDirectories(dir);
+					writeText(dir.resolve("file" + i + ".txt"), 16 + random.nextInt(1024 - 16), random);
+				}
+				break;
+			case "huge":
+				writeText(directory.resolve("huge.txt"), 1024*1024*256, random);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown corpus " + name);
+		}
+		Files.createFile(directory.resolve(COMPLETE_MARKER));
+		return directory;
+	}
+
+	/**
+	 * Load every regular file of the corpus in name order.
+	 */
+	static List<Entry> load(String name) throws IOException {
+		Path directory = get(name);
+		List<Entry> entries = new ArrayList<>();
+		for(Path path : files(directory)) {
+			byte[] data = Files.readAllBytes(path);
+			String entryName = directory.relativize(path).toString();
+			entries.add(new Entry(new FileEntry(entryName, FileEntry.FileType.FILE, data.length), data));
+		}
+		return entries;
+	}
+
+	/**
+	 * Return regular files of the directory in name order, excluding the marker.
+	 */
+	static List<Path> files(Path directory) throws IOException {
+		try(Stream<Path> stream = Files.walk(directory)) {
+			return stream
+				.filter(Files::isRegularFile)
+				.filter(p -> !p.getFileName().toString().equals(COMPLETE_MARKER))
+				.sorted()
+				.collect(Collectors.toList());
+		}
+	}
+
+	/*
+	 * Write text made of words of a fixed vocabulary, picked with a skewed distribution like natural language.
+	 */
+	private static void writeText(Path path, int size, Random random) throws IOException {
+		byte[][] vocabulary = vocabulary(new Random(0));
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1024*64)) {
+			int written = 0;
+			while(written < size) {
+				double r = random.nextDouble();
+				byte[] word = vocabulary[(int)(vocabulary.length * r * r * r)];
+				int len = Math.min(word.length, size - written);
+				out.write(word, 0, len);
+				written += len;
+				if(written < size) {
+					out.write(random.nextInt(12) == 0 ? '\n' : ' ');
+					written++;
+				}
+			}
+		}
+	}
+
+	private static void writeRandom(Path path, int size, Random random) throws IOException {
+		byte[] data = new byte[size];
+		random.nextBytes(data);
+		Files.write(path, data);
+	}
+
+	private static byte[][] vocabulary(Random random) {
+		byte[][] words = new byte[4096][];
+		for(int i=0;i<words.length;i++) {
+			words[i] = new byte[2 + random.nextInt(9)];
+			for(int j=0;j<words[i].length;j++) {
+				words[i][j] = (byte)('a' + random.nextInt(26));
+			}
+		}
+		return words;
+	}
+}
@@ -0,0 +1,22 @@
+package benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * Output stream discarding the data written to it, only counting its length.
+ */
+class CountingOutputStream extends OutputStream {
+	private long count;
+
+	@Override public void write(int b) {
+		count++;
+	}
+
+	@Override public void write(byte[] b, int off, int len) {
+		count += len;
+	}
+
+	long getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,60 @@
+package benchmark;
+
+import model.FileEntry;
+import org.openjdk.jmh.annotations.*;
+import stream.ParallelCompressOutputStream;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a short lived ParallelCompressOutputStream, from creating the stream to finish, which
+ * waits for the write thread to write the central directory and the end trailer. Sampled, so the
+ * percentiles show stalls of single archives, for example while waiting for entropy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class FinishBenchmark {
+
+	@Param({"0", "1"})
+	public int entries;
+
+	@Param({"shared", "owned"})
+	public String pool;
+
+	private byte[] content;
+
+	@Setup
+	public void setup() {
+		content = new byte[1024];
+		for(int i=0;i<content.length;i++) {
+			content[i] = (byte)('a' + i % 26);
+		}
+	}
+
+	/**
+	 * Create a stream, write the entries and finish the archive.
+	 */
+	@Benchmark
+	public long openAndFinish() throws IOException, InterruptedException, NoSuchAlgorithmException {
+		ParallelCompressOutputStream.Builder builder = ParallelCompressOutputStream.builder();
+		if(pool.equals("owned")) {
+			builder.threads(2);
+		}
+		CountingOutputStream out = new CountingOutputStream();
+		ParallelCompressOutputStream pcos = builder.build(out);
+		for(int i=0;i<entries;i++) {
+			pcos.putNextEntry(new FileEntry("file" + i, FileEntry.FileType.FILE, content.length));
+			pcos.write(content);
+			pcos.closeEntry();
+		}
+		pcos.finish();
+		pcos.close();
+		return out.getCount();
+	}
+}
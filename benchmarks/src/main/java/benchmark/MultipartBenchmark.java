@@ -0,0 +1,149 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import stream.MultipartFileInputStream;
+import stream.MultipartFileOutputStream;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Write and read throughput of MultipartFileOutputStream and MultipartFileInputStream across part sizes
+ * and sizes of the buffer handed to write and read. Parts are written to target/multipart, and striped
+ * over target/multipart-1 and so on with more than one directory. Those are on the same device, so the
+ * striped runs measure the cost of the extra write and read threads rather than the gain of more devices,
+ * unless stripeRoot puts the stripe directories on another file system, for example
+ * -p stripeRoot=/dev/shm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class MultipartBenchmark {
+	private static final Path DIRECTORY = Paths.get("target", "multipart");
+	private static final Path WRITE_DIRECTORY = Paths.get("target", "multipart-write");
+	private static final String ARCHIVE = DIRECTORY.resolve("bench.zip").toString();
+
+	/**
+	 * Empty directory for every write invocation, since existing parts are not overwritten.
+	 */
+	@State(Scope.Thread)
+	public static class WriteDirectory {
+		@Setup(Level.Invocation)
+		public void setup(MultipartBenchmark benchmark) throws IOException {
+			for(Path directory : benchmark.directories(WRITE_DIRECTORY)) {
+				clean(directory);
+				Files.createDirectories(directory);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown(MultipartBenchmark benchmark) throws IOException {
+			for(Path directory : benchmark.directories(WRITE_DIRECTORY)) {
+				clean(directory);
+			}
+		}
+	}
+
+	@Param({"268435456"})
+	public int totalSize;
+
+	@Param({"1048576", "67108864"})
+	public long partSize;
+
+	@Param({"8192", "131072"})
+	public int bufferSize;
+
+	@Param({"1", "2"})
+	public int directories;
+
+	@Param({""})
+	public String stripeRoot;
+
+	private byte[] buffer;
+
+	@Setup
+	public void setup() throws IOException {
+		buffer = new byte[bufferSize];
+		new Random(0).nextBytes(buffer);
+		for(Path directory : directories(DIRECTORY)) {
+			clean(directory);
+			Files.createDirectories(directory);
+		}
+		write(ARCHIVE, directories(DIRECTORY));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		for(Path directory : directories(DIRECTORY)) {
+			clean(directory);
+		}
+	}
+
+	/**
+	 * Write totalSize bytes into parts.
+	 */
+	@Benchmark
+	public void write(WriteDirectory writeDirectory) throws IOException {
+		write(WRITE_DIRECTORY.resolve("bench.zip").toString(), directories(WRITE_DIRECTORY));
+	}
+
+	private void write(String archive, List<Path> directories) throws IOException {
+		List<String> stripeDirectories = directories.subList(1, directories.size()).stream()
+			.map(Path::toString)
+			.collect(Collectors.toList());
+		try(MultipartFileOutputStream out = new MultipartFileOutputStream(archive, partSize, MultipartFileOutputStream.DEFAULT_BUFFER_SIZE, stripeDirectories)) {
+			for(long written = 0;written < totalSize;written += buffer.length) {
+				out.write(buffer, 0, (int)Math.min(buffer.length, totalSize - written));
+			}
+		}
+	}
+
+	/**
+	 * Read all parts written in setup. Return read size.
+	 */
+	@Benchmark
+	public long read() throws IOException {
+		long size = 0;
+		try(MultipartFileInputStream in = new MultipartFileInputStream(ARCHIVE)) {
+			int len;
+			while((len = in.read(buffer, 0, buffer.length)) != -1) {
+				size += len;
+			}
+		}
+		return size;
+	}
+
+	/*
+	 * The directory followed by its stripe directories, next to it or in the stripe root.
+	 */
+	private List<Path> directories(Path directory) {
+		List<Path> paths = new ArrayList<>(directories);
+		paths.add(directory);
+		for(int i=1;i<directories;i++) {
+			String name = directory.getFileName() + "-" + i;
+			paths.add(stripeRoot.isEmpty() ? directory.resolveSibling(name) : Paths.get(stripeRoot, name));
+		}
+		return paths;
+	}
+
+	private static void clean(Path directory) throws IOException {
+		if(!Files.exists(directory)) return;
+		try(Stream<Path> stream = Files.walk(directory)) {
+			for(Path path : (Iterable<Path>)stream.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package benchmark;
+
+import compression.DeflaterCompressionStrategy;
+import decompression.InflaterDecompressionStrategy;
+import org.openjdk.jmh.annotations.*;
+import stream.DecompressInputStream;
+import stream.ParallelCompressOutputStream;
+import stream.ParallelDecompressInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * End-to-end throughput of ParallelCompressOutputStream and ParallelDecompressInputStream on in-memory
+ * corpora across chunk sizes and thread counts. Output goes to memory, so file system is not measured.
+ * The compress benchmark also reports the time the writer waited for compressed blocks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+public class ParallelCompressBenchmark {
+
+	@Param({"text", "random", "tiny", "huge"})
+	public String corpus;
+
+	@Param({"65536", "131072", "1048576"})
+	public int chunkSize;
+
+	@Param({"1", "2", "4"})
+	public int threads;
+
+	/**
+	 * Milliseconds the writer waited for the next compressed block, and milliseconds spent compressing,
+	 * summed over an iteration. Their ratio is the share of the time the writer was stalled.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class WriteStall {
+		public double writeStallMs;
+		public double compressMs;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			writeStallMs = 0;
+			compressMs = 0;
+		}
+	}
+
+	private List<Corpora.Entry> entries;
+	private byte[] archive;
+	private byte[] readBuffer;
+
+	@Setup
+	public void setup() throws Exception {
+		entries = Corpora.load(corpus);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		compress(out);
+		archive = out.toByteArray();
+		readBuffer = new byte[1024*64];
+	}
+
+	/**
+	 * Compress every entry of the corpus. Return compressed size.
+	 */
+	@Benchmark
+	public long compress(WriteStall writeStall) throws IOException, InterruptedException, NoSuchAlgorithmException {
+		CountingOutputStream out = new CountingOutputStream();
+		long start = System.nanoTime();
+		ParallelCompressOutputStream pcos = compress(out);
+		writeStall.compressMs += (System.nanoTime() - start) / 1e6;
+		writeStall.writeStallMs += pcos.getWriteStallTime() / 1e6;
+		return out.getCount();
+	}
+
+	/**
+	 * Decompress the archive of the corpus. Return decompressed size.
+	 */
+	@Benchmark
+	public long decompress() throws IOException, DataFormatException {
+		long size = 0;
+		try(DecompressInputStream in = new ParallelDecompressInputStream(
+			new ByteArrayInputStream(archive), new InflaterDecompressionStrategy(), threads)) {
+			while(in.getNextEntry() != null) {
+				int len;
+				while((len = in.read(readBuffer)) != -1) {
+					size += len;
+				}
+				in.closeEntry();
+			}
+		}
+		return size;
+	}
+
+	private ParallelCompressOutputStream compress(OutputStream out) throws IOException, InterruptedException, NoSuchAlgorithmException {
+		ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder()
+			.chunkSize(chunkSize)
+			.compressionStrategy(new DeflaterCompressionStrategy())
+			.threads(threads)
+			.build(out);
+		for(Corpora.Entry entry : entries) {
+			pcos.putNextEntry(entry.fileEntry);
+			pcos.write(entry.data);
+			pcos.closeEntry();
+		}
+		pcos.finish();
+		pcos.close();
+		return pcos;
+	}
+}
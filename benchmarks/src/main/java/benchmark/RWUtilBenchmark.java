@@ -0,0 +1,75 @@
+package benchmark;
+
+import model.ByteSignature;
+import model.FileEntry;
+import org.openjdk.jmh.annotations.*;
+import util.RWUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding and decoding the file and frame headers with RWUtil.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RWUtilBenchmark {
+	private FileEntry fileEntry;
+	private byte[] name;
+	private ByteArrayOutputStream out;
+	private byte[] encoded;
+
+	@Setup
+	public void setup() throws IOException {
+		fileEntry = new FileEntry("dir/subdir/some_file_name.txt", FileEntry.FileType.FILE, 123456789L);
+		name = fileEntry.getName().getBytes(StandardCharsets.UTF_8);
+		out = new ByteArrayOutputStream(256);
+		encodeFileHeader();
+		encoded = out.toByteArray();
+	}
+
+	/**
+	 * Encode a file header like ParallelCompressOutputStream does at the start of an entry.
+	 */
+	@Benchmark
+	public int encodeFileHeader() throws IOException {
+		out.reset();
+		RWUtil.write64(out, ByteSignature.FILE.getValue());
+		RWUtil.write32(out, name.length);
+		out.write(name);
+		RWUtil.write16(out, fileEntry.getType().getValue());
+		RWUtil.write64(out, fileEntry.getSize());
+		return out.size();
+	}
+
+	/**
+	 * Encode a block frame header.
+	 */
+	@Benchmark
+	public int encodeFrameHeader() throws IOException {
+		out.reset();
+		RWUtil.write64(out, ByteSignature.BLOCK.getValue());
+		RWUtil.write32(out, 65536);
+		RWUtil.write32(out, 131072);
+		return out.size();
+	}
+
+	/**
+	 * Decode the file header encoded in setup.
+	 */
+	@Benchmark
+	public long decodeFileHeader() {
+		long signature = RWUtil.get64(encoded, 0);
+		int nameLength = (int)RWUtil.get32(encoded, 8);
+		String decodedName = new String(encoded, 12, nameLength, StandardCharsets.UTF_8);
+		int type = RWUtil.get16(encoded, 12 + nameLength);
+		long size = RWUtil.get64(encoded, 14 + nameLength);
+		return signature ^ size ^ type ^ decodedName.length();
+	}
+}
@@ -1,28 +1,102 @@
+import compression.AdaptiveDeflaterCompressionStrategy;
 import compression.CompressionStrategy;
 import compression.DeflaterCompressionStrategy;
+import compression.IncompressibleDataDetector;
 import decompression.DecompressionStrategy;
 import decompression.InflaterDecompressionStrategy;
+import model.Codec;
 import model.FileEntry;
+import model.IndexEntry;
+import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import stream.*;
+import util.Crc32c;
+import util.DuplicateFinder;
+import util.Manifest;
+import util.ParallelFileReader;
+import util.ParallelFileWriter;
 
 import java.io.*;
 import java.nio.file.*;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Checksum;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 
 public class YoungZip {
 
 	private static Logger logger = LoggerFactory.getLogger(YoungZip.class);
 
+	/*
+	 * Files up to READ_BUFFER_SIZE are read ahead by READ_THREADS threads, holding at most READ_AHEAD
+	 * files in memory. Larger files are read with a buffer of the same size.
+	 */
+	private static final int READ_THREADS = 4;
+	private static final int READ_AHEAD = 64;
+	private static final int READ_BUFFER_SIZE = 1024*256;
+
+	/*
+	 * Extracted files are created and written by WRITE_THREADS threads, holding at most WRITE_BUFFERS
+	 * buffers of WRITE_BUFFER_SIZE bytes of decompressed content waiting to be written.
+	 */
+	private static final int WRITE_THREADS = 4;
+	private static final int WRITE_BUFFERS = 128;
+	private static final int WRITE_BUFFER_SIZE = 1024*128;
+
+	/*
+	 * Buffer size of archives streamed through standard input and output.
+	 */
+	private static final int STREAM_BUFFER_SIZE = 1024*64;
+
 	public static void compress(String inputDirectory, String outputDirectory) throws IOException, InterruptedException, NoSuchAlgorithmException {
 		compress(inputDirectory, outputDirectory, 100*1024*1024, new DeflaterCompressionStrategy());
 	}
 
-	public static void compress(String inputDirectory, String outputDirectory, int partSizeLimit, CompressionStrategy compressionStrategy) throws IOException, InterruptedException, NoSuchAlgorithmException {
+	public static void compress(String inputDirectory, String outputDirectory, long partSizeLimit, CompressionStrategy compressionStrategy) throws IOException, InterruptedException, NoSuchAlgorithmException {
+		compress(inputDirectory, outputDirectory, partSizeLimit,
+			ParallelCompressOutputStream.builder().compressionStrategy(compressionStrategy));
+	}
+
+	public static void compress(String inputDirectory, String outputDirectory, long partSizeLimit, CompressionStrategy compressionStrategy, int threads) throws IOException, InterruptedException, NoSuchAlgorithmException {
+		compress(inputDirectory, outputDirectory, partSizeLimit,
+			ParallelCompressOutputStream.builder().compressionStrategy(compressionStrategy).threads(threads));
+	}
+
+	/**
+	 * Compress input directory into multipart archive in output directory, using a
+	 * ParallelCompressOutputStream configured by the builder.
+	 */
+	public static void compress(String inputDirectory, String outputDirectory, long partSizeLimit, ParallelCompressOutputStream.Builder builder) throws IOException, InterruptedException, NoSuchAlgorithmException {
+		compress(inputDirectory, outputDirectory, partSizeLimit, builder, null);
+	}
+
+	/**
+	 * Compress input directory into multipart archive in output directory. If previousDirectory is
+	 * not null, the archive is incremental to the archive in it. Only entries which are new or changed
+	 * since the previous archive are written, followed by DELETED entries for deleted ones.
+	 * A manifest of the whole tree is written next to the archive for the next incremental archive.
+	 * A file with the same content as a file written before it is written as a reference to that file.
+	 */
+	public static void compress(String inputDirectory, String outputDirectory, long partSizeLimit, ParallelCompressOutputStream.Builder builder, String previousDirectory) throws IOException, InterruptedException, NoSuchAlgorithmException {
+		compress(inputDirectory, outputDirectory, Collections.emptyList(), partSizeLimit, builder, previousDirectory);
+	}
+
+	/**
+	 * Compress input directory into multipart archive striped round-robin in 1MB units over output
+	 * directory and stripe directories, which are written concurrently. Decompression finds the
+	 * parts from output directory alone.
+	 */
+	public static void compress(String inputDirectory, String outputDirectory, List<String> stripeDirectories, long partSizeLimit, ParallelCompressOutputStream.Builder builder, String previousDirectory) throws IOException, InterruptedException, NoSuchAlgorithmException {
 		Path inputDirPath = Paths.get(inputDirectory);
 		Path outputDirPath = Paths.get(outputDirectory);
 		if(!(Files.exists(inputDirPath))) {
@@ -32,34 +106,218 @@ public class YoungZip {
 		if (!(Files.exists(outputDirPath))) {
 			Files.createDirectories(Paths.get(outputDirectory));
 		}
-		List<Path> fileList = Files.walk(inputDirPath)
-			.filter(path -> !path.toString().equals(inputDirectory))
-			.collect(Collectors.toList());
-
+		Manifest previous = previousDirectory == null ? null : readManifest(previousDirectory);
 		String zipFile = outputDirPath.toString() + "/" + inputDirPath.getFileName().toString() + ".zip";
-		MultipartFileOutputStream mfos = new MultipartFileOutputStream(zipFile, partSizeLimit);
-		ParallelCompressOutputStream afos = new ParallelCompressOutputStream(mfos, compressionStrategy);
-		byte[] buf = new byte[1024];
-		for (Path path : fileList) {
+		ParallelCompressOutputStream afos = builder.build(new MultipartFileOutputStream(zipFile, partSizeLimit, MultipartFileOutputStream.DEFAULT_BUFFER_SIZE, stripeDirectories));
+		Manifest manifest = writeTree(inputDirPath, previous, afos);
+		afos.finish();
+		afos.close();
+		logger.info("peak in-flight bytes : " + afos.getPeakInFlightBytes());
+
+		try (RandomAccessArchive archive = new RandomAccessArchive(zipFile)) {
+			for(IndexEntry indexEntry : archive.getEntries()) {
+				FileEntry fileEntry = indexEntry.getFileEntry();
+				Manifest.Entry entry = manifest.get(fileEntry.getName());
+				if(entry != null) {
+					manifest.put(new Manifest.Entry(entry.getName(), entry.getType(), fileEntry.getSize(), entry.getModifiedTime(), indexEntry.getChecksum()));
+				}
+			}
+		}
+		manifest.write(manifestPath(zipFile));
+	}
+
+	/**
+	 * Compress input directory into a single archive stream written to out, for example standard
+	 * output of a pipeline. The archive is not split into parts and has no manifest, and can be read
+	 * back with decompress from an input stream. out is closed when the archive is finished.
+	 */
+	public static void compress(String inputDirectory, OutputStream out, ParallelCompressOutputStream.Builder builder) throws IOException, InterruptedException, NoSuchAlgorithmException {
+		Path inputDirPath = Paths.get(inputDirectory);
+		if(!(Files.exists(inputDirPath))) {
+			logger.error("input directory dose not exist.");
+			throw new NoSuchFileException(inputDirectory);
+		}
+		ParallelCompressOutputStream afos = builder.build(out);
+		writeTree(inputDirPath, null, afos);
+		afos.finish();
+		afos.close();
+		logger.info("peak in-flight bytes : " + afos.getPeakInFlightBytes());
+	}
+
+	/*
+	 * Write entries of the tree under input directory to the stream, and return a manifest of the
+	 * tree without checksums of written files. If previous manifest is given, only entries changed
+	 * since then are written, followed by DELETED entries.
+	 */
+	private static Manifest writeTree(Path inputDirPath, Manifest previous, ParallelCompressOutputStream afos) throws IOException {
+		List<Path> walkedList;
+		try(Stream<Path> walk = Files.walk(inputDirPath)) {
+			walkedList = walk
+				.filter(path -> !path.equals(inputDirPath))
+				.collect(Collectors.toList());
+		}
+		Manifest manifest = new Manifest();
+		List<Path> fileList = new ArrayList<>();
+		List<FileEntry.FileType> typeList = new ArrayList<>();
+		for(Path path : walkedList) {
+			String name = inputDirPath.relativize(path).toString();
+			FileEntry.FileType type = FileEntry.FileType.fromPath(path);
+			Manifest.Entry entry;
 			try {
+				entry = new Manifest.Entry(name, type, Files.size(path), Files.getLastModifiedTime(path).toMillis(), -1);
+			} catch (NoSuchFileException e) {
+				logger.warn(e.getMessage(), e);
+				continue;
+			}
+			Manifest.Entry previousEntry = previous == null ? null : previous.get(name);
+			if(isUnchanged(path, entry, previousEntry)) {
+				manifest.put(new Manifest.Entry(name, type, entry.getSize(), entry.getModifiedTime(), previousEntry.getChecksum()));
+			} else {
+				manifest.put(entry);
+				fileList.add(path);
+				typeList.add(type);
+			}
+		}
+		List<Path> regularFileList = new ArrayList<>();
+		for(int i=0;i<fileList.size();i++) {
+			if(typeList.get(i) == FileEntry.FileType.FILE) regularFileList.add(fileList.get(i));
+		}
+
+		DuplicateFinder duplicateFinder = new DuplicateFinder();
+		byte[] buf = new byte[READ_BUFFER_SIZE];
+		try(ParallelFileReader reader = new ParallelFileReader(regularFileList, READ_THREADS, READ_AHEAD, READ_BUFFER_SIZE)) {
+			for(int i=0;i<fileList.size();i++) {
+				Path path = fileList.get(i);
+				FileEntry.FileType type = typeList.get(i);
 				String name = inputDirPath.relativize(path).toString();
-				FileEntry fileEntry = new FileEntry(name, FileEntry.FileType.fromPath(path), Files.size(path));
+				try {
+					if(type == FileEntry.FileType.FILE) {
+						writeFile(afos, name, reader.next(), reader, duplicateFinder, buf);
+					} else {
+						afos.putNextEntry(new FileEntry(name, type, Files.size(path)));
+						afos.closeEntry();
+					}
+				} catch (NoSuchFileException e) {
+					logger.warn(e.getMessage(), e);
+					manifest.remove(name);
+				}
+			}
+		}
+		if(previous != null) {
+			List<String> deletedList = previous.getEntries().stream()
+				.map(Manifest.Entry::getName)
+				.filter(name -> manifest.get(name) == null)
+				.sorted(Comparator.reverseOrder())
+				.collect(Collectors.toList());
+			for(String name : deletedList) {
+				afos.putNextEntry(new FileEntry(name, FileEntry.FileType.DELETED, 0));
+				afos.closeEntry();
+			}
+		}
+		return manifest;
+	}
+
+	/*
+	 * Return whether the entry is the same as in the previous manifest. A file of the same size but
+	 * another modification time is compared by its checksum, which costs a read but no compression.
+	 */
+	private static boolean isUnchanged(Path path, Manifest.Entry entry, Manifest.Entry previousEntry) throws IOException {
+		if(previousEntry == null || previousEntry.getType() != entry.getType()) {
+			return false;
+		}
+		if(entry.getType() != FileEntry.FileType.FILE) {
+			return true;
+		}
+		if(previousEntry.getSize() != entry.getSize()) {
+			return false;
+		}
+		if(previousEntry.getModifiedTime() == entry.getModifiedTime()) {
+			return true;
+		}
+		if(previousEntry.getChecksum() < 0) {
+			return false;
+		}
+		Checksum checksum = Crc32c.create();
+		byte[] buf = new byte[READ_BUFFER_SIZE];
+		try(InputStream fis = Files.newInputStream(path, StandardOpenOption.READ)) {
+			int len;
+			while((len = fis.read(buf)) != -1) {
+				checksum.update(buf, 0, len);
+			}
+		}
+		return checksum.getValue() == previousEntry.getChecksum();
+	}
+
+	/*
+	 * Read the manifest of the archive in the directory. Archives without manifest are described
+	 * by their central directory, which has no modification times.
+	 */
+	private static Manifest readManifest(String directory) throws IOException {
+		String zipFile = findZipFile(Paths.get(directory));
+		Path manifestPath = manifestPath(zipFile);
+		if(Files.exists(manifestPath)) {
+			return Manifest.read(manifestPath);
+		}
+		Manifest manifest = new Manifest();
+		try (RandomAccessArchive archive = new RandomAccessArchive(zipFile)) {
+			for(IndexEntry indexEntry : archive.getEntries()) {
+				FileEntry fileEntry = indexEntry.getFileEntry();
+				if(fileEntry.getType() != FileEntry.FileType.DELETED) {
+					manifest.put(new Manifest.Entry(fileEntry.getName(), fileEntry.getType(), fileEntry.getSize(), -1, indexEntry.getChecksum()));
+				} else {
+					// merged archives may delete an entry of an earlier archive
+					manifest.remove(fileEntry.getName());
+				}
+			}
+		}
+		return manifest;
+	}
+
+	private static Path manifestPath(String zipFile) {
+		return Paths.get(zipFile.substring(0, zipFile.length() - 3) + "manifest");
+	}
+
+	/*
+	 * Write a regular file as an entry. A file with the same content as an earlier file is written
+	 * as a reference to it. Files read ahead are written from their buffer,
+	 * larger files are read here. A larger file whose first buffer looks incompressible is
+	 * stored as a whole: the first buffer from memory, the rest read from the file once.
+	 */
+	private static void writeFile(ParallelCompressOutputStream afos, String name, ParallelFileReader.FileData fileData, ParallelFileReader reader, DuplicateFinder duplicateFinder, byte[] buf) throws IOException {
+		try {
+			long size = fileData.isLoaded() ? fileData.getLength() : Files.size(fileData.getPath());
+			FileEntry fileEntry = new FileEntry(name, FileEntry.FileType.FILE, size);
+			DuplicateFinder.Original original = duplicateFinder.find(name, fileData.getPath(), size, fileData.getBuffer());
+			if(original != null) {
+				afos.putReference(fileEntry, original.getName(), original.getChecksum());
+				return;
+			}
+			if(fileData.isLoaded()) {
 				afos.putNextEntry(fileEntry);
-				if(fileEntry.getType() == FileEntry.FileType.FILE) {
-					InputStream fis = new BufferedInputStream(Files.newInputStream(path, StandardOpenOption.READ));
+				afos.write(fileData.getBuffer(), 0, fileData.getLength());
+			} else {
+				try(InputStream fis = Files.newInputStream(fileData.getPath(), StandardOpenOption.READ)) {
+					afos.putNextEntry(fileEntry);
+					int first = 0;
 					int len = -1;
-					while ((len = fis.read(buf)) != -1) {
-						afos.write(buf, 0, len);
+					while (first < buf.length && (len = fis.read(buf, first, buf.length - first)) != -1) {
+						first += len;
+					}
+					if(afos.isStoreIncompressible() && IncompressibleDataDetector.isIncompressible(buf, 0, first)) {
+						afos.store(buf, 0, first);
+						afos.storeFrom(fileData.getPath(), first, size - first);
+					} else {
+						afos.write(buf, 0, first);
+						while ((len = fis.read(buf)) != -1) {
+							afos.write(buf, 0, len);
+						}
 					}
 				}
-				afos.closeEntry();
-			} catch (NoSuchFileException e) {
-				logger.warn(e.getMessage(), e);
-				continue;
 			}
+			afos.closeEntry();
+		} finally {
+			reader.release(fileData);
 		}
-		afos.finish();
-		afos.close();
 	}
 
 	public static void decompress(String inputDirectory, String outputDirectory) throws IOException, DataFormatException {
@@ -67,62 +325,476 @@ public class YoungZip {
 	}
 
 	public static void decompress(String inputDirectory, String outputDirectory, DecompressionStrategy decompressionStrategy) throws IOException, DataFormatException {
+		decompress(inputDirectory, outputDirectory, decompressionStrategy, Runtime.getRuntime().availableProcessors());
+	}
+
+	public static void decompress(String inputDirectory, String outputDirectory, DecompressionStrategy decompressionStrategy, int threads) throws IOException, DataFormatException {
 		Path inputDirPath = Paths.get(inputDirectory);
-		Path outputDirPath = Paths.get(outputDirectory);
 		if (!(Files.exists(inputDirPath))) {
 			logger.error("input directory dose not exist.");
 			throw new NoSuchFileException(inputDirectory);
 		}
+		decompress(new MultipartFileInputStream(findZipFile(inputDirPath)), outputDirectory, decompressionStrategy, threads);
+	}
+
+	/**
+	 * Decompress a single archive stream, as written by compress to an output stream, into output
+	 * directory. in is closed when the archive is decompressed.
+	 */
+	public static void decompress(InputStream in, String outputDirectory, DecompressionStrategy decompressionStrategy, int threads) throws IOException, DataFormatException {
+		Path outputDirPath = Paths.get(outputDirectory);
 		if (!(Files.exists(outputDirPath))) {
-			Files.createDirectories(Paths.get(outputDirectory));
+			Files.createDirectories(outputDirPath);
+		}
+		DecompressInputStream afis = new ParallelDecompressInputStream(in, decompressionStrategy, threads);
+		try(ParallelFileWriter writer = new ParallelFileWriter(WRITE_THREADS, WRITE_BUFFERS, WRITE_BUFFER_SIZE)) {
+			Map<String, FileEntry.FileType> writtenEntries = new HashMap<>();
+			FileEntry entry;
+			while((entry = afis.getNextEntry())!= null) {
+				writeEntry(afis, entry, outputDirectory, writer, writtenEntries);
+				afis.closeEntry();
+			}
+		} finally {
+			afis.close();
+		}
+	}
+
+	/**
+	 * List entries of the archive in the input directory using its central directory.
+	 */
+	public static List<IndexEntry> list(String inputDirectory) throws IOException {
+		Path inputDirPath = Paths.get(inputDirectory);
+		if (!(Files.exists(inputDirPath))) {
+			logger.error("input directory dose not exist.");
+			throw new NoSuchFileException(inputDirectory);
+		}
+		try (RandomAccessArchive archive = new RandomAccessArchive(findZipFile(inputDirPath))) {
+			return archive.getEntries();
+		}
+	}
+
+	/**
+	 * Restore a chain of archives into output directory. The first archive is extracted as a whole,
+	 * then every incremental archive written against the one before it overwrites changed entries
+	 * and deletes deleted entries. Archives must be given from the oldest.
+	 */
+	public static void restore(List<String> inputDirectories, String outputDirectory, int threads) throws IOException, DataFormatException {
+		for(String inputDirectory : inputDirectories) {
+			decompress(inputDirectory, outputDirectory, new InflaterDecompressionStrategy(), threads);
+		}
+	}
+
+	/**
+	 * Copy the archive in input directory into output directory, split into parts of partSizeLimit
+	 * and striped over the stripe directories, without decompressing it. The manifest of the archive
+	 * is copied with it.
+	 */
+	public static void resplit(String inputDirectory, String outputDirectory, List<String> stripeDirectories, long partSizeLimit) throws IOException {
+		String zipFile = findZipFile(Paths.get(inputDirectory));
+		String outputZipFile = createOutputZipFile(Collections.singletonList(zipFile), outputDirectory);
+		try(MultipartFileOutputStream out = new MultipartFileOutputStream(outputZipFile, partSizeLimit, MultipartFileOutputStream.DEFAULT_BUFFER_SIZE, stripeDirectories)) {
+			ArchiveSplicer.resplit(zipFile, out);
+		}
+		copyManifest(zipFile, outputZipFile);
+	}
+
+	/**
+	 * Merge the archives in input directories into one archive in output directory without
+	 * decompressing them, for example a full archive and its incremental archives, oldest first.
+	 * Decompressing the merged archive has the same effect as restoring the archives one after
+	 * another. The manifest of the last archive is copied with it. Return the number of entries
+	 * of the merged archive.
+	 */
+	public static int merge(List<String> inputDirectories, String outputDirectory, List<String> stripeDirectories, long partSizeLimit) throws IOException {
+		List<String> zipFiles = new ArrayList<>(inputDirectories.size());
+		for(String inputDirectory : inputDirectories) {
+			zipFiles.add(findZipFile(Paths.get(inputDirectory)));
+		}
+		String outputZipFile = createOutputZipFile(zipFiles, outputDirectory);
+		int count;
+		try(MultipartFileOutputStream out = new MultipartFileOutputStream(outputZipFile, partSizeLimit, MultipartFileOutputStream.DEFAULT_BUFFER_SIZE, stripeDirectories)) {
+			count = ArchiveSplicer.merge(zipFiles, out);
+		}
+		copyManifest(zipFiles.get(zipFiles.size() - 1), outputZipFile);
+		return count;
+	}
+
+	/*
+	 * Create output directory and return the path of an archive in it named after the first
+	 * archive. The output archive must not be one of the archives it is copied from.
+	 */
+	private static String createOutputZipFile(List<String> zipFiles, String outputDirectory) throws IOException {
+		Path outputDirPath = Paths.get(outputDirectory);
+		Path outputZipFile = outputDirPath.resolve(Paths.get(zipFiles.get(0)).getFileName());
+		for(String zipFile : zipFiles) {
+			if(Paths.get(zipFile).toAbsolutePath().normalize().equals(outputZipFile.toAbsolutePath().normalize())) {
+				throw new IOException("archive " + zipFile + " can't be written over itself");
+			}
+		}
+		Files.createDirectories(outputDirPath);
+		return outputZipFile.toString();
+	}
+
+	private static void copyManifest(String zipFile, String outputZipFile) throws IOException {
+		Path manifestPath = manifestPath(zipFile);
+		if(Files.exists(manifestPath)) {
+			Files.copy(manifestPath, manifestPath(outputZipFile), StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.deleteIfExists(manifestPath(outputZipFile));
+		}
+	}
+
+	public static int verify(String inputDirectory) throws IOException, DataFormatException {
+		return verify(inputDirectory, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Verify the archive in the input directory without writing any file. Blocks are checked against
+	 * their checksums while they are decompressed in the given number of threads, and the content of
+	 * every entry against its size and checksum in the central directory. A reference must have the
+	 * checksum of the entry it refers to. Throw IOException at the
+	 * first mismatch. Return the number of verified entries.
+	 */
+	public static int verify(String inputDirectory, int threads) throws IOException, DataFormatException {
+		Path inputDirPath = Paths.get(inputDirectory);
+		if (!(Files.exists(inputDirPath))) {
+			logger.error("input directory dose not exist.");
+			throw new NoSuchFileException(inputDirectory);
+		}
+		String zipFile = findZipFile(inputDirPath);
+		List<IndexEntry> indexEntries;
+		try (RandomAccessArchive archive = new RandomAccessArchive(zipFile)) {
+			indexEntries = archive.getEntries();
+		}
+		Checksum checksum = Crc32c.create();
+		Map<String, Long> verifiedChecksums = new HashMap<>();
+		byte[] buffer = new byte[1024*64];
+		int count = 0;
+		try (DecompressInputStream afis = new ParallelDecompressInputStream(new MultipartFileInputStream(zipFile), new InflaterDecompressionStrategy(), threads)) {
+			FileEntry entry;
+			while((entry = afis.getNextEntry()) != null) {
+				if(count == indexEntries.size() || !indexEntries.get(count).getFileEntry().getName().equals(entry.getName())) {
+					throw new IOException("entry " + entry.getName() + " does not match central directory");
+				}
+				IndexEntry indexEntry = indexEntries.get(count++);
+				if(afis.getReference() != null) {
+					Long targetChecksum = verifiedChecksums.get(afis.getReference());
+					if(targetChecksum == null || targetChecksum != indexEntry.getChecksum()) {
+						throw new IOException("invalid reference in entry " + entry.getName());
+					}
+					afis.closeEntry();
+					continue;
+				}
+				checksum.reset();
+				long size = 0;
+				int length;
+				while((length = afis.read(buffer)) != -1) {
+					checksum.update(buffer, 0, length);
+					size += length;
+				}
+				afis.closeEntry();
+				if(entry.getType() == FileEntry.FileType.FILE && size != entry.getSize()) {
+					throw new IOException("size mismatch in entry " + entry.getName());
+				}
+				if(indexEntry.getChecksum() >= 0 && checksum.getValue() != indexEntry.getChecksum()) {
+					throw new IOException("checksum mismatch in entry " + entry.getName());
+				}
+				if(entry.getType() == FileEntry.FileType.FILE) {
+					verifiedChecksums.put(entry.getName(), indexEntry.getChecksum());
+				}
+			}
+		}
+		if(count != indexEntries.size()) {
+			throw new IOException("archive ended before entry " + indexEntries.get(count).getFileEntry().getName());
+		}
+		return count;
+	}
+
+	public static void extract(String inputDirectory, String entryName, String outputDirectory) throws IOException, DataFormatException {
+		extract(inputDirectory, entryName, outputDirectory, new InflaterDecompressionStrategy());
+	}
+
+	/**
+	 * Extract a single entry of the archive in the input directory. Seek to the blocks of the entry
+	 * using central directory, so other entries are not decompressed. A reference is extracted from
+	 * the blocks of the entry it refers to.
+	 */
+	public static void extract(String inputDirectory, String entryName, String outputDirectory, DecompressionStrategy decompressionStrategy) throws IOException, DataFormatException {
+		Path inputDirPath = Paths.get(inputDirectory);
+		if (!(Files.exists(inputDirPath))) {
+			logger.error("input directory dose not exist.");
+			throw new NoSuchFileException(inputDirectory);
+		}
+		try (RandomAccessArchive archive = new RandomAccessArchive(findZipFile(inputDirPath))) {
+			IndexEntry indexEntry = archive.getEntry(entryName);
+			if(indexEntry == null) {
+				logger.error("entry not found in the archive.");
+				throw new FileNotFoundException(entryName);
+			}
+			DecompressInputStream afis = archive.openEntry(indexEntry, decompressionStrategy);
+			afis.getNextEntry();
+			try(ParallelFileWriter writer = new ParallelFileWriter(1, 4, WRITE_BUFFER_SIZE)) {
+				writeEntry(afis, indexEntry.getFileEntry(), outputDirectory, writer, new HashMap<>());
+			}
 		}
+	}
+
+	private static String findZipFile(Path inputDirPath) throws IOException {
 		List<Path> zipFiles = Files.walk(inputDirPath)
 			.filter(path -> path.toString().endsWith("zip") && !Files.isDirectory(path))
 			.collect(Collectors.toList());
 		if(zipFiles.isEmpty()) {
+			// the last part of a striped archive may be in a stripe directory, next to its stripe file
+			List<Path> stripeFiles = Files.walk(inputDirPath)
+				.filter(path -> path.toString().endsWith(".stripe") && !Files.isDirectory(path))
+				.collect(Collectors.toList());
+			if(!stripeFiles.isEmpty()) {
+				String stripeFile = stripeFiles.get(0).toString();
+				return stripeFile.substring(0, stripeFile.length() - 6) + "zip";
+			}
 			logger.error("Zip file not found in the directory.");
 			throw new FileNotFoundException("Zip file not found in the directory");
 		}
+		return zipFiles.get(0).toString();
+	}
 
-		String zipFile = zipFiles.get(0).toString();
-		MultipartFileInputStream mfis = new MultipartFileInputStream(zipFile);
-		DecompressInputStream afis = new DecompressInputStream(mfis, decompressionStrategy);
-		byte[] buffer = new byte[1024];
-		FileEntry entry;
-		while((entry = afis.getNextEntry())!= null) {
-			Path filePath = Paths.get(outputDirectory, entry.getName());
-			if(entry.getType() == FileEntry.FileType.DIRECTORY) {
-				Files.createDirectories(filePath);
-			} else if(entry.getType() == FileEntry.FileType.FILE) {
-				Files.createDirectories(filePath.getParent());
-				OutputStream fos = new BufferedOutputStream(Files.newOutputStream(filePath));
-				int length = -1;
-				while ((length = afis.read(buffer)) != -1) {
-					fos.write(buffer, 0, length);
+	/*
+	 * Create directory or hand content of file entry read from the stream to the writer, which
+	 * creates the file and writes it in another thread.
+	 * A reference is copied from the file of the entry it refers to, after that file is written.
+	 * The entry must be a FILE entry written earlier from the same stream. writtenEntries holds the
+	 * type of every entry written from the stream by name. DELETED entry deletes the file or directory
+	 * once pending writes are done. A file or directory of another type at the path of the entry is
+	 * deleted first, after pending writes at the path and under it are done, since a merged archive
+	 * may change the type of a path written earlier from the same stream.
+	 */
+	private static void writeEntry(DecompressInputStream afis, FileEntry entry, String outputDirectory, ParallelFileWriter writer, Map<String, FileEntry.FileType> writtenEntries) throws IOException {
+		Path filePath = resolveEntryPath(outputDirectory, entry.getName());
+		FileEntry.FileType previousType = writtenEntries.get(entry.getName());
+		if(entry.getType() == FileEntry.FileType.DELETED || (previousType != null && previousType != entry.getType())) {
+			writer.await();
+			writtenEntries.remove(entry.getName());
+			writtenEntries.keySet().removeIf(name -> name.startsWith(entry.getName() + "/"));
+		}
+		if(entry.getType() == FileEntry.FileType.DELETED) {
+			deleteTree(filePath);
+		} else if(entry.getType() == FileEntry.FileType.DIRECTORY) {
+			if(Files.exists(filePath) && !Files.isDirectory(filePath)) {
+				Files.delete(filePath);
+			}
+			Files.createDirectories(filePath);
+			writtenEntries.put(entry.getName(), entry.getType());
+		} else if(entry.getType() == FileEntry.FileType.FILE) {
+			if(afis.getReference() != null) {
+				if(writtenEntries.get(afis.getReference()) != FileEntry.FileType.FILE) {
+					throw new IOException("entry " + entry.getName() + " refers to " + afis.getReference() + " which is not an earlier file");
+				}
+				writer.copyFile(resolveEntryPath(outputDirectory, afis.getReference()), filePath);
+				writtenEntries.put(entry.getName(), entry.getType());
+				return;
+			}
+			writer.createFile(filePath);
+			long position = 0;
+			int length = 0;
+			while(length != -1) {
+				byte[] buffer = writer.acquire();
+				int filled = 0;
+				while(filled < buffer.length && (length = afis.read(buffer, filled, buffer.length - filled)) != -1) {
+					filled += length;
+				}
+				if(filled > 0) {
+					writer.write(filePath, buffer, filled, position);
+					position += filled;
+				} else {
+					writer.release(buffer);
 				}
-				fos.close();
 			}
-			afis.closeEntry();
+			writer.closeFile(filePath);
+			writtenEntries.put(entry.getName(), entry.getType());
+		}
+	}
+
+	/*
+	 * Return the path of the entry in the output directory. Entry names come from the archive, so a
+	 * name which is absolute or climbs out with "..", or names the output directory itself, is
+	 * rejected before anything is written or deleted at its path.
+	 */
+	private static Path resolveEntryPath(String outputDirectory, String name) throws IOException {
+		try {
+			Path outputDirPath = Paths.get(outputDirectory).toAbsolutePath().normalize();
+			Path normalized = outputDirPath.resolve(name).normalize();
+			if(!normalized.startsWith(outputDirPath) || normalized.equals(outputDirPath)) {
+				throw new IOException("entry " + name + " is outside of the output directory");
+			}
+			return Paths.get(outputDirectory, name);
+		} catch (InvalidPathException e) {
+			throw new IOException("invalid entry name " + name, e);
+		}
+	}
+
+	private static void deleteTree(Path path) throws IOException {
+		if(!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+			return;
+		}
+		try(Stream<Path> walk = Files.walk(path)) {
+			for(Path child : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(child);
+			}
 		}
-		afis.close();
 	}
 
 	public static void main(String[] args) throws IOException, InterruptedException, NoSuchAlgorithmException, DataFormatException {
+		Options options = new Options();
+		options.addOption(Option.builder("t").longOpt("threads").hasArg().argName("count")
+			.desc("number of compression or decompression threads (default: number of processors)").build());
+		options.addOption(Option.builder("c").longOpt("codec").hasArg().argName("name")
+			.desc("compression codec, deflate or lz4 (default: deflate)").build());
+		options.addOption(Option.builder("l").longOpt("level").hasArg().argName("level")
+			.desc("deflate level from 1 to 9, or auto to adapt it to the load (default: 5)").build());
+		options.addOption(Option.builder().longOpt("target").hasArg().argName("MB/s")
+			.desc("throughput for the auto deflate level to keep").build());
+		options.addOption(Option.builder("s").longOpt("solid")
+			.desc("pack small files into shared compression blocks").build());
+		options.addOption(Option.builder().longOpt("cdc")
+			.desc("cut files into blocks at content defined boundaries").build());
+		options.addOption(Option.builder("i").longOpt("incremental").hasArg().argName("directory")
+			.desc("write only changes since the archive in the directory").build());
+		options.addOption(Option.builder().longOpt("stripe").hasArg().argName("directories")
+			.desc("comma separated directories to stripe archive parts over with the output directory").build());
+		CommandLine commandLine;
+		try {
+			commandLine = new DefaultParser().parse(options, args);
+		} catch (ParseException e) {
+			logger.error(e.getMessage());
+			new HelpFormatter().printHelp("youngzip [options] (input directory) (output directory) [file size limit]", options);
+			return;
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		if(commandLine.hasOption("threads")) {
+			try {
+				threads = Integer.parseInt(commandLine.getOptionValue("threads"));
+			} catch (NumberFormatException e) {
+				threads = 0;
+			}
+			if(threads <= 0) {
+				logger.error("invalid number of threads " + commandLine.getOptionValue("threads"));
+				return;
+			}
+		}
+		Codec codec = Codec.DEFLATE;
+		if(commandLine.hasOption("codec")) {
+			try {
+				codec = Codec.valueOf(commandLine.getOptionValue("codec").toUpperCase());
+			} catch (IllegalArgumentException e) {
+				logger.error("unknown codec " + commandLine.getOptionValue("codec"));
+				return;
+			}
+		}
+		CompressionStrategy compressionStrategy = CompressionStrategy.forCodec(codec);
+		if(commandLine.hasOption("level") || commandLine.hasOption("target")) {
+			String level = commandLine.getOptionValue("level", "auto");
+			if(codec != Codec.DEFLATE) {
+				logger.error("deflate level can't be set for codec " + codec);
+				return;
+			} else if(level.equals("auto")) {
+				long target;
+				try {
+					target = Long.parseLong(commandLine.getOptionValue("target", "0"));
+				} catch (NumberFormatException e) {
+					target = -1;
+				}
+				if(target < 0 || target > Long.MAX_VALUE / 1024 / 1024) {
+					logger.error("invalid throughput target " + commandLine.getOptionValue("target"));
+					return;
+				}
+				compressionStrategy = new AdaptiveDeflaterCompressionStrategy(Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION, target*1024*1024);
+			} else if(commandLine.hasOption("target")) {
+				logger.error("throughput target needs auto deflate level");
+				return;
+			} else {
+				try {
+					compressionStrategy = new DeflaterCompressionStrategy(Integer.parseInt(level));
+				} catch (IllegalArgumentException e) {
+					logger.error("invalid deflate level " + level);
+					return;
+				}
+			}
+		}
+		List<String> stripeDirectories = commandLine.hasOption("stripe")
+			? Arrays.asList(commandLine.getOptionValue("stripe").split(","))
+			: Collections.emptyList();
+		args = commandLine.getArgs();
+
+		if(args.length >= 2 && args[0].equals("list")) {
+			for(IndexEntry indexEntry : list(args[1])) {
+				FileEntry fileEntry = indexEntry.getFileEntry();
+				System.out.println(fileEntry.getType() + "\t" + fileEntry.getSize() + "\t" + indexEntry.getCompressedSize() + "\t" + fileEntry.getName());
+			}
+			return;
+		} else if(args.length >= 4 && args[0].equals("extract")) {
+			extract(args[1], args[2], args[3]);
+			return;
+		} else if(args.length >= 3 && args[0].equals("restore")) {
+			long start = System.currentTimeMillis();
+			restore(Arrays.asList(args).subList(2, args.length), args[1], threads);
+			logger.info("restore completed! elapsed time : " + ( System.currentTimeMillis() - start )/1000.0 );
+			return;
+		} else if(args.length >= 4 && args[0].equals("resplit")) {
+			long start = System.currentTimeMillis();
+			resplit(args[1], args[2], stripeDirectories, Long.parseLong(args[3])*1024*1024);
+			logger.info("resplit completed! elapsed time : " + ( System.currentTimeMillis() - start )/1000.0 );
+			return;
+		} else if(args.length >= 4 && args[0].equals("merge")) {
+			long start = System.currentTimeMillis();
+			int count = merge(Arrays.asList(args).subList(3, args.length), args[1], stripeDirectories, Long.parseLong(args[2])*1024*1024);
+			logger.info(count + " entries merged! elapsed time : " + ( System.currentTimeMillis() - start )/1000.0 );
+			return;
+		} else if(args.length >= 2 && args[0].equals("verify")) {
+			long start = System.currentTimeMillis();
+			int count = verify(args[1], threads);
+			logger.info(count + " entries verified! elapsed time : " + ( System.currentTimeMillis() - start )/1000.0 );
+			return;
+		}
+		ParallelCompressOutputStream.Builder builder = ParallelCompressOutputStream.builder()
+			.compressionStrategy(compressionStrategy)
+			.threads(threads)
+			.solid(commandLine.hasOption("solid"))
+			.contentDefinedChunking(commandLine.hasOption("cdc"));
+		if(args.length >= 2 && args[1].equals("-")) {
+			if(commandLine.hasOption("incremental")) {
+				logger.error("incremental archive can't be written to standard output");
+				return;
+			}
+			// standard output carries only the archive, logs go to standard error
+			OutputStream stdout = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), STREAM_BUFFER_SIZE);
+			System.setOut(System.err);
+			long start = System.currentTimeMillis();
+			logger.info("compressing to standard output...");
+			compress(args[0], stdout, builder);
+			logger.info("compression completed! elapsed time : " + ( System.currentTimeMillis() - start )/1000.0 );
+			return;
+		} else if(args.length >= 2 && args[0].equals("-")) {
+			long start = System.currentTimeMillis();
+			logger.info("decompressing from standard input...");
+			decompress(new BufferedInputStream(new FileInputStream(FileDescriptor.in), STREAM_BUFFER_SIZE), args[1], new InflaterDecompressionStrategy(), threads);
+			logger.info("decompression completed! elapsed time : " + ( System.currentTimeMillis() - start )/1000.0 );
+			return;
+		}
 		String inputDirectory = args[0];
 		String outputDirectory = args[1];
 		if(args.length >= 3) {
 			long originalSize = Files.walk(Paths.get(inputDirectory)).mapToLong( p -> p.toFile().length() ).sum();
 			long start = System.currentTimeMillis();
 			logger.info("compressing...");
-			int compressedSizeLimit = Integer.valueOf(args[2]);
-			compress(inputDirectory, outputDirectory, compressedSizeLimit*1024*1024, new DeflaterCompressionStrategy());
+			long compressedSizeLimit = Long.parseLong(args[2]);
+			compress(inputDirectory, outputDirectory, stripeDirectories, compressedSizeLimit*1024*1024, builder, commandLine.getOptionValue("incremental"));
 			long compressedSize = Files.walk(Paths.get(outputDirectory)).mapToLong( p -> p.toFile().length() ).sum();
 			logger.info("compression completed! elapsed time : " + ( System.currentTimeMillis() - start )/1000.0 );
 			logger.info("original size : " + originalSize + " => " + " compressed size : " + compressedSize);
 		} else if(args.length >= 2) {
 			logger.info("decompressing...");
 			long start = System.currentTimeMillis();
-			decompress(inputDirectory, outputDirectory, new InflaterDecompressionStrategy());
+			decompress(inputDirectory, outputDirectory, new InflaterDecompressionStrategy(), threads);
 			logger.info("decompression completed! elapsed time : " + ( System.currentTimeMillis() - start )/1000.0 );
 		}
 	}
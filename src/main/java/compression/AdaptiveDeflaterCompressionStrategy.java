@@ -0,0 +1,149 @@
+package compression;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates every block at a level chosen from the measured cost of the levels and the load of the
+ * pipeline. The time of every block is measured, and the cost per byte of each level is kept as a
+ * moving average. The level moves by one step at most once in an adjust interval:
+ *
+ * With a throughput target, the level is lowered while the compression threads can not reach the
+ * target at current level, and raised while they would still reach it at the next level.
+ * Without a target, the level is lowered while blocks queue up for the compression threads and the
+ * writer keeps up, since compression is the bottleneck, and raised while the writer falls behind or
+ * no block waits for the threads, since spare cores can improve the ratio for free. In between,
+ * with a few blocks waiting and the writer keeping up, the pipeline is balanced and the level is held.
+ *
+ * Without the load of a pipeline, only the target is followed.
+ */
+public class AdaptiveDeflaterCompressionStrategy extends DeflaterCompressionStrategy {
+	private static final long DEFAULT_ADJUST_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/*
+	 * Headroom over the target required to try the next level before its cost is measured.
+	 */
+	private static final double UNMEASURED_LEVEL_MARGIN = 1.5;
+
+	/*
+	 * Weight of a new block in the moving average cost of its level.
+	 */
+	private static final double SAMPLE_WEIGHT = 0.2;
+
+	private final int minLevel;
+	private final int maxLevel;
+	private final long targetBytesPerSecond;
+	private final long adjustInterval;
+	private final double[] nanosPerByte = new double[Deflater.BEST_COMPRESSION + 1];
+	private volatile int level;
+	private volatile CompressionLoad load;
+	private long lastAdjustTime;
+
+	/**
+	 * Creates a strategy adapting the level between 1 and 9 to the load of the pipeline.
+	 */
+	public AdaptiveDeflaterCompressionStrategy() {
+		this(Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION, 0);
+	}
+
+	/**
+	 * Creates a strategy adapting the level between minLevel and maxLevel to keep compression at
+	 * targetBytesPerSecond of input, or to the load of the pipeline if the target is 0.
+	 */
+	public AdaptiveDeflaterCompressionStrategy(int minLevel, int maxLevel, long targetBytesPerSecond) {
+		this(minLevel, maxLevel, targetBytesPerSecond, DEFAULT_ADJUST_INTERVAL);
+	}
+
+	/**
+	 * Creates a strategy moving the level at most once in adjustInterval nanoseconds.
+	 */
+	public AdaptiveDeflaterCompressionStrategy(int minLevel, int maxLevel, long targetBytesPerSecond, long adjustInterval) {
+		super(Math.max(minLevel, Math.min(maxLevel, DEFAULT_LEVEL)));
+		if(minLevel < Deflater.BEST_SPEED || maxLevel > Deflater.BEST_COMPRESSION || minLevel > maxLevel) {
+			throw new IllegalArgumentException("Invalid deflate levels." + minLevel + "-" + maxLevel);
+		}
+		if(targetBytesPerSecond < 0) {
+			throw new IllegalArgumentException("Invalid throughput target." + targetBytesPerSecond);
+		}
+		this.minLevel = minLevel;
+		this.maxLevel = maxLevel;
+		this.targetBytesPerSecond = targetBytesPerSecond;
+		this.adjustInterval = adjustInterval;
+		this.level = Math.max(minLevel, Math.min(maxLevel, DEFAULT_LEVEL));
+		this.lastAdjustTime = System.nanoTime();
+	}
+
+	@Override public void setLoad(CompressionLoad load) {
+		this.load = load;
+	}
+
+	/**
+	 * Level the next block is deflated at.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Deflates the block at current level, and measures it.
+	 */
+	@Override public int compress(byte[] data, int offset, int length, byte[] out) {
+		if(length == 0) return 0;
+		int blockLevel = level;
+		long start = System.nanoTime();
+		int compressedLength = deflate(data, offset, length, out, blockLevel);
+		long end = System.nanoTime();
+		record(blockLevel, length, end - start, end);
+		return compressedLength;
+	}
+
+	private synchronized void record(int blockLevel, int length, long elapsed, long now) {
+		double sample = (double)Math.max(elapsed, 1) / length;
+		nanosPerByte[blockLevel] = nanosPerByte[blockLevel] == 0 ? sample : nanosPerByte[blockLevel] * (1 - SAMPLE_WEIGHT) + sample * SAMPLE_WEIGHT;
+		if(now - lastAdjustTime >= adjustInterval && blockLevel == level) {
+			lastAdjustTime = now;
+			adjust();
+		}
+	}
+
+	/*
+	 * Move the level one step by the rules in the class comment.
+	 */
+	private void adjust() {
+		CompressionLoad load = this.load;
+		int threads = load != null ? Math.max(load.getThreads(), 1) : 1;
+		int queuedBlocks = load != null ? load.getQueuedBlocks() : 0;
+		boolean cpuBound = queuedBlocks > threads;
+		boolean sinkBound = load != null && load.getUnwrittenBlocks() > threads;
+		boolean idle = queuedBlocks == 0;
+		int next = level;
+		if(targetBytesPerSecond > 0) {
+			if(throughput(level, threads) < targetBytesPerSecond) {
+				next = level - 1;
+			} else if(level < maxLevel && reachesTarget(level + 1, threads)) {
+				next = level + 1;
+			}
+		} else if(load != null) {
+			if(cpuBound && !sinkBound) {
+				next = level - 1;
+			} else if(sinkBound || idle) {
+				next = level + 1;
+			}
+		}
+		level = Math.max(minLevel, Math.min(maxLevel, next));
+	}
+
+	/*
+	 * Estimated input bytes per second of all threads compressing at the level.
+	 */
+	private double throughput(int level, int threads) {
+		return threads * 1e9 / nanosPerByte[level];
+	}
+
+	private boolean reachesTarget(int level, int threads) {
+		if(nanosPerByte[level] == 0) {
+			return throughput(this.level, threads) >= targetBytesPerSecond * UNMEASURED_LEVEL_MARGIN;
+		}
+		return throughput(level, threads) >= targetBytesPerSecond;
+	}
+}
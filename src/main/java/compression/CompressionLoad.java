@@ -0,0 +1,24 @@
+package compression;
+
+/**
+ * Load of the pipeline a compression strategy runs in, sampled by strategies which adapt to it.
+ * Blocks queued for compression pile up when compression is the bottleneck, and compressed blocks
+ * pile up in front of the writer when the output is.
+ */
+public interface CompressionLoad {
+
+	/**
+	 * Number of threads compressing blocks.
+	 */
+	int getThreads();
+
+	/**
+	 * Number of blocks waiting for a compression thread.
+	 */
+	int getQueuedBlocks();
+
+	/**
+	 * Number of compressed blocks waiting for the writer.
+	 */
+	int getUnwrittenBlocks();
+}
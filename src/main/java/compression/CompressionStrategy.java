@@ -1,9 +1,49 @@
 package compression;
 
+import model.Codec;
+
+import java.util.Arrays;
+
 public interface CompressionStrategy {
 
 	/**
 	 * Compresses the input data. Return the compressed data.
 	 */
 	byte[] compress(byte[] data);
+
+	/**
+	 * Compresses length bytes of data from offset into out. Return the compressed length, or -1 if
+	 * the compressed data does not fit in out. Strategies override it to compress without allocating.
+	 */
+	default int compress(byte[] data, int offset, int length, byte[] out) {
+		byte[] compressed = compress(Arrays.copyOfRange(data, offset, offset + length));
+		if(compressed.length > out.length) {
+			return -1;
+		}
+		System.arraycopy(compressed, 0, out, 0, compressed.length);
+		return compressed.length;
+	}
+
+	/**
+	 * Called by the stream the strategy compresses blocks for, with the load of its pipeline.
+	 * Strategies which adapt to the load override it.
+	 */
+	default void setLoad(CompressionLoad load) {
+	}
+
+	/**
+	 * Get codec of the compressed data, which is recorded in the archive header.
+	 */
+	Codec getCodec();
+
+	/**
+	 * Create the default compression strategy of the codec.
+	 */
+	static CompressionStrategy forCodec(Codec codec) {
+		switch(codec) {
+			case DEFLATE: return new DeflaterCompressionStrategy();
+			case LZ4: return new Lz4CompressionStrategy();
+		}
+		throw new IllegalArgumentException("unknown codec " + codec);
+	}
 }
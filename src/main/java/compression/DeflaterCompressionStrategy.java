@@ -1,36 +1,93 @@
 package compression;
 
-import java.io.ByteArrayOutputStream;
+import model.Codec;
+
+import java.util.Arrays;
 import java.util.zip.Deflater;
 
 public class DeflaterCompressionStrategy implements CompressionStrategy {
+	public static final int DEFAULT_LEVEL = 5;
 
 	/*
 	 * ThreadLocal to avoid reallocating memory of deflater and buffer, resulting in increased performance.
+	 * The level of the deflater is set for every block, since strategies of different levels share it.
+	 */
+	private static final ThreadLocal<Deflater> threadLocalDeflator = ThreadLocal.withInitial(() -> new Deflater(DEFAULT_LEVEL, true));
+	private static final ThreadLocal<byte[][]> threadLocalOutputBuffer = ThreadLocal.withInitial(() -> new byte[1][0]);
+
+	private final int level;
+
+	public DeflaterCompressionStrategy() {
+		this(DEFAULT_LEVEL);
+	}
+
+	/**
+	 * Creates a strategy deflating at given level, from 1 (fastest) to 9 (best compression).
 	 */
-	private static final ThreadLocal<Deflater> threadLocalDeflator = ThreadLocal.withInitial(() -> new Deflater(5, true));
-	private static final ThreadLocal<byte[]> threadLocalDeflateBuffer = ThreadLocal.withInitial(() -> new byte[1024]);
-	private static final ThreadLocal<ByteArrayOutputStream> threadLocalByteArrayOutputStream = ThreadLocal.withInitial(() -> new ByteArrayOutputStream(1024*9));
+	public DeflaterCompressionStrategy(int level) {
+		if(level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid deflate level." + level);
+		}
+		this.level = level;
+	}
 
 	/**
-	 * Compresses the input data. Return the compressed data. Reuse buffers and deflater for performance.
+	 * Return the length of buffer deflate output of data of given length always fits in,
+	 * including the bytes of stored blocks and sync flush.
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + (length >> 12) + (length >> 14) + 64;
+	}
+
+	/**
+	 * Compresses the input data. Return the compressed data. The whole data is deflated into a buffer
+	 * large enough for it, so that deflater is called only once for the block.
 	 */
 	@Override public byte[] compress(byte[] data) {
 		if(data.length == 0) return new byte[0];
 
-		byte[] deflated = threadLocalDeflateBuffer.get();
+		byte[][] holder = threadLocalOutputBuffer.get();
+		if(holder[0].length < maxCompressedLength(data.length)) {
+			holder[0] = new byte[maxCompressedLength(data.length)];
+		}
+		int len = compress(data, 0, data.length, holder[0]);
+		if(len < 0) {
+			throw new IllegalStateException("deflate output exceeded " + holder[0].length + " bytes");
+		}
+		return Arrays.copyOf(holder[0], len);
+	}
+
+	/**
+	 * Compresses length bytes of data from offset directly into out.
+	 * Return -1 if out is full before deflater finishes.
+	 */
+	@Override public int compress(byte[] data, int offset, int length, byte[] out) {
+		return deflate(data, offset, length, out, level);
+	}
+
+	/**
+	 * Deflates length bytes of data from offset into out at given level.
+	 * Return -1 if out is full before deflater finishes.
+	 */
+	static int deflate(byte[] data, int offset, int length, byte[] out, int level) {
+		if(length == 0) return 0;
+
 		Deflater deflater = threadLocalDeflator.get();
 		deflater.reset();
-		ByteArrayOutputStream baos = threadLocalByteArrayOutputStream.get();
-		baos.reset();
-
-		deflater.setInput(data);
+		deflater.setLevel(level);
+		deflater.setInput(data, offset, length);
 		deflater.finish();
-		int len = -1;
+		int len = 0;
 		while(!deflater.finished()) {
-			len = deflater.deflate(deflated, 0, deflated.length, Deflater.SYNC_FLUSH);
-			if(len > 0) baos.write(deflated, 0, len);
+			if(len == out.length) {
+				return -1;
+			}
+			len += deflater.deflate(out, len, out.length - len, Deflater.SYNC_FLUSH);
 		}
-		return baos.toByteArray();
+		return len;
+	}
+
+	@Override public Codec getCodec() {
+		return Codec.DEFLATE;
 	}
 }
@@ -0,0 +1,41 @@
+package compression;
+
+public class IncompressibleDataDetector {
+	private static final int SAMPLE_COUNT = 16;
+	private static final int SAMPLE_SIZE = 1024;
+	private static final double ENTROPY_THRESHOLD = 7.9;
+
+	/**
+	 * Estimates whether the data can not be compressed, by measuring byte entropy of samples
+	 * spread over the data. Data such as jpeg, video or gzip has nearly 8 bits of entropy per
+	 * byte, which deflate can not reduce.
+	 */
+	public static boolean isIncompressible(byte[] data) {
+		return isIncompressible(data, 0, data.length);
+	}
+
+	/**
+	 * Estimates whether length bytes of the data from offset can not be compressed.
+	 */
+	public static boolean isIncompressible(byte[] data, int offset, int length) {
+		if(length < SAMPLE_COUNT * SAMPLE_SIZE) {
+			return false;
+		}
+		int[] counts = new int[256];
+		int stride = length / SAMPLE_COUNT;
+		for(int i=0;i<SAMPLE_COUNT;i++) {
+			int start = offset + i * stride;
+			for(int j=start;j<start+SAMPLE_SIZE;j++) {
+				counts[data[j] & 0xff]++;
+			}
+		}
+		double total = SAMPLE_COUNT * SAMPLE_SIZE;
+		double entropy = 0;
+		for(int count : counts) {
+			if(count == 0) continue;
+			double p = count / total;
+			entropy -= p * Math.log(p);
+		}
+		return entropy / Math.log(2) >= ENTROPY_THRESHOLD;
+	}
+}
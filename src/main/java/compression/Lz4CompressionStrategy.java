@@ -0,0 +1,164 @@
+package compression;
+
+import model.Codec;
+
+import java.util.Arrays;
+
+/**
+ * Compresses data in LZ4 block format. Compression ratio is lower than deflate, but compression and
+ * decompression are several times faster. Matches are found with a single hash table of 4 byte sequences.
+ */
+public class Lz4CompressionStrategy implements CompressionStrategy {
+	static final int MIN_MATCH = 4;
+	static final int MAX_OFFSET = 65535;
+	/*
+	 * The last match must start at least MF_LIMIT bytes before the end of the block, and the last
+	 * LAST_LITERALS bytes of the block are always literals.
+	 */
+	static final int MF_LIMIT = 12;
+	static final int LAST_LITERALS = 5;
+	private static final int HASH_LOG = 14;
+	private static final int SKIP_TRIGGER = 6;
+
+	/*
+	 * ThreadLocal to avoid reallocating hash table and output buffer for every block.
+	 */
+	private static final ThreadLocal<int[]> threadLocalHashTable = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+	private static final ThreadLocal<byte[][]> threadLocalOutputBuffer = ThreadLocal.withInitial(() -> new byte[1][0]);
+
+	/**
+	 * Return the maximum compressed length of data of given length.
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses the input data. Return the compressed data.
+	 */
+	@Override public byte[] compress(byte[] data) {
+		if(data.length == 0) return new byte[0];
+
+		byte[] out = outputBuffer(data.length);
+		return Arrays.copyOf(out, compress(data, 0, data.length, out, threadLocalHashTable.get()));
+	}
+
+	/**
+	 * Compresses length bytes of data from offset into out. Compresses directly into out if it can
+	 * hold the maximum compressed length, otherwise into a thread local buffer first.
+	 */
+	@Override public int compress(byte[] data, int offset, int length, byte[] out) {
+		if(length == 0) return 0;
+
+		if(out.length >= maxCompressedLength(length)) {
+			return compress(data, offset, length, out, threadLocalHashTable.get());
+		}
+		byte[] buffer = outputBuffer(length);
+		int compressedLength = compress(data, offset, length, buffer, threadLocalHashTable.get());
+		if(compressedLength > out.length) {
+			return -1;
+		}
+		System.arraycopy(buffer, 0, out, 0, compressedLength);
+		return compressedLength;
+	}
+
+	/*
+	 * Compress into out, which must hold the maximum compressed length. Return the compressed length.
+	 */
+	private static int compress(byte[] data, int offset, int length, byte[] out, int[] hashTable) {
+		Arrays.fill(hashTable, -1);
+
+		int ip = offset;
+		int anchor = offset;
+		int op = 0;
+		int matchStartLimit = offset + length - MF_LIMIT;
+		int matchEndLimit = offset + length - LAST_LITERALS;
+		while(ip < matchStartLimit) {
+			int sequence = readInt(data, ip);
+			int h = hash(sequence);
+			int ref = hashTable[h];
+			hashTable[h] = ip;
+			if(ref < 0 || ip - ref > MAX_OFFSET || readInt(data, ref) != sequence) {
+				ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+				continue;
+			}
+			while(ip > anchor && ref > offset && data[ip - 1] == data[ref - 1]) {
+				ip--;
+				ref--;
+			}
+			int matchLength = MIN_MATCH;
+			while(ip + matchLength < matchEndLimit && data[ip + matchLength] == data[ref + matchLength]) {
+				matchLength++;
+			}
+			op = writeSequence(out, op, data, anchor, ip - anchor, ip - ref, matchLength);
+			ip += matchLength;
+			anchor = ip;
+			if(ip - 2 < matchStartLimit) {
+				hashTable[hash(readInt(data, ip - 2))] = ip - 2;
+			}
+		}
+		return writeLastLiterals(out, op, data, anchor, offset + length - anchor);
+	}
+
+	/*
+	 * Return thread local output buffer which can hold compressed data of given length.
+	 */
+	private static byte[] outputBuffer(int length) {
+		byte[][] holder = threadLocalOutputBuffer.get();
+		if(holder[0].length < maxCompressedLength(length)) {
+			holder[0] = new byte[maxCompressedLength(length)];
+		}
+		return holder[0];
+	}
+
+	@Override public Codec getCodec() {
+		return Codec.LZ4;
+	}
+
+	/*
+	 * Write a sequence of token, literal length, literals, match offset and match length.
+	 */
+	private static int writeSequence(byte[] out, int op, byte[] data, int literalStart, int literalLength, int offset, int matchLength) {
+		int tokenPos = op++;
+		op = writeLength(out, op, literalLength);
+		System.arraycopy(data, literalStart, out, op, literalLength);
+		op += literalLength;
+		out[op++] = (byte)offset;
+		out[op++] = (byte)(offset >>> 8);
+		op = writeLength(out, op, matchLength - MIN_MATCH);
+		out[tokenPos] = (byte)((Math.min(literalLength, 15) << 4) | Math.min(matchLength - MIN_MATCH, 15));
+		return op;
+	}
+
+	/*
+	 * Write last sequence of the block, which has literals only.
+	 */
+	private static int writeLastLiterals(byte[] out, int op, byte[] data, int literalStart, int literalLength) {
+		out[op++] = (byte)(Math.min(literalLength, 15) << 4);
+		op = writeLength(out, op, literalLength);
+		System.arraycopy(data, literalStart, out, op, literalLength);
+		return op + literalLength;
+	}
+
+	/*
+	 * Write the part of a length which does not fit in 4 bits of the token.
+	 */
+	private static int writeLength(byte[] out, int op, int length) {
+		if(length < 15) return op;
+		length -= 15;
+		while(length >= 255) {
+			out[op++] = (byte)255;
+			length -= 255;
+		}
+		out[op++] = (byte)length;
+		return op;
+	}
+
+	private static int readInt(byte[] data, int off) {
+		return (data[off] & 0xff) | (data[off + 1] & 0xff) << 8 | (data[off + 2] & 0xff) << 16 | (data[off + 3] & 0xff) << 24;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+}
@@ -1,7 +1,10 @@
 package decompression;
 
+import model.Codec;
+
 import java.io.IOException;
 import java.io.PushbackInputStream;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 
 public interface DecompressionStrategy {
@@ -10,4 +13,35 @@ public interface DecompressionStrategy {
 	 * Decompresses a compressed block from inputStream. Return the decompressed block.
 	 */
 	byte[] decompress(PushbackInputStream inputStream) throws IOException, DataFormatException;
+
+	/**
+	 * Decompresses a whole compressed block whose decompressed length is already known.
+	 * Return the decompressed block. May be called from multiple threads concurrently.
+	 */
+	byte[] decompress(byte[] data, int originalLength) throws DataFormatException;
+
+	/**
+	 * Decompresses the first length bytes of data into out, which holds at least originalLength bytes.
+	 * Strategies override it to decompress without allocating. May be called from multiple threads concurrently.
+	 */
+	default void decompress(byte[] data, int length, byte[] out, int originalLength) throws DataFormatException {
+		byte[] block = decompress(length == data.length ? data : Arrays.copyOf(data, length), originalLength);
+		System.arraycopy(block, 0, out, 0, originalLength);
+	}
+
+	/**
+	 * Get codec this strategy decompresses.
+	 */
+	Codec getCodec();
+
+	/**
+	 * Create the default decompression strategy of the codec.
+	 */
+	static DecompressionStrategy forCodec(Codec codec) {
+		switch(codec) {
+			case DEFLATE: return new InflaterDecompressionStrategy();
+			case LZ4: return new Lz4DecompressionStrategy();
+		}
+		throw new IllegalArgumentException("unknown codec " + codec);
+	}
 }
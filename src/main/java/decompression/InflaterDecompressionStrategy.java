@@ -1,11 +1,18 @@
 package decompression;
 
+import model.Codec;
+
 import java.io.*;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 public class InflaterDecompressionStrategy implements DecompressionStrategy  {
 
+	/*
+	 * ThreadLocal to share inflater among decompression threads without synchronization.
+	 */
+	private static final ThreadLocal<Inflater> threadLocalInflater = ThreadLocal.withInitial(() -> new Inflater(true));
+
 	private ByteArrayOutputStream baos;
 	private byte[] inputBuf;
 	private byte[] inflated;
@@ -13,8 +20,8 @@ public class InflaterDecompressionStrategy implements DecompressionStrategy  {
 
 	public InflaterDecompressionStrategy() {
 		baos = new ByteArrayOutputStream();
-		inputBuf = new byte[512];
-		inflated = new byte[512];
+		inputBuf = new byte[1024*8];
+		inflated = new byte[1024*64];
 		inflater = new Inflater(true);
 	}
 
@@ -26,12 +33,13 @@ public class InflaterDecompressionStrategy implements DecompressionStrategy  {
 		inflater.reset();
 		baos.reset();
 		int n;
+		int len = 0;
 		while (!inflater.finished()) {
 			n = inflater.inflate(inflated, 0, inflated.length);
 			if(n > 0) {
 				baos.write(inflated, 0, n);
 			} else if (inflater.needsInput()) {
-				int len = in.read(inputBuf, 0, inputBuf.length);
+				len = in.read(inputBuf, 0, inputBuf.length);
 				if (len == -1) {
 					throw new EOFException("Unexpected end of ZLIB input stream");
 				}
@@ -39,9 +47,41 @@ public class InflaterDecompressionStrategy implements DecompressionStrategy  {
 			}
 		}
 		if(inflater.getRemaining() > 0) {
-			in.unread(inputBuf, inputBuf.length - inflater.getRemaining(), inflater.getRemaining());
+			in.unread(inputBuf, len - inflater.getRemaining(), inflater.getRemaining());
 			inflater.reset();
 		}
 		return baos.toByteArray();
 	}
+
+	/**
+	 * Decompresses a whole compressed block into an array of originalLength.
+	 */
+	@Override public byte[] decompress(byte[] data, int originalLength) throws DataFormatException {
+		byte[] inflated = new byte[originalLength];
+		decompress(data, data.length, inflated, originalLength);
+		return inflated;
+	}
+
+	/**
+	 * Decompresses the first length bytes of data into out. Reuse thread local inflater for performance.
+	 */
+	@Override public void decompress(byte[] data, int length, byte[] out, int originalLength) throws DataFormatException {
+		if(originalLength == 0) return;
+
+		Inflater inflater = threadLocalInflater.get();
+		inflater.reset();
+		inflater.setInput(data, 0, length);
+		int off = 0;
+		while(off < originalLength) {
+			int n = inflater.inflate(out, off, originalLength - off);
+			if(n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+				throw new DataFormatException("block is shorter than its original length");
+			}
+			off += n;
+		}
+	}
+
+	@Override public Codec getCodec() {
+		return Codec.DEFLATE;
+	}
 }
@@ -0,0 +1,95 @@
+package decompression;
+
+import model.Codec;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.zip.DataFormatException;
+
+/**
+ * Decompresses blocks in LZ4 block format. LZ4 blocks do not mark their own end, so they can only be
+ * decompressed from framed archives, where the length of each block is known.
+ */
+public class Lz4DecompressionStrategy implements DecompressionStrategy {
+	private static final int MIN_MATCH = 4;
+
+	/**
+	 * Not supported. Legacy archives without block frames are always deflate compressed.
+	 */
+	@Override public byte[] decompress(PushbackInputStream inputStream) throws IOException {
+		throw new IOException("LZ4 blocks can not be read without block frame");
+	}
+
+	/**
+	 * Decompresses a whole compressed block into an array of originalLength.
+	 */
+	@Override public byte[] decompress(byte[] data, int originalLength) throws DataFormatException {
+		byte[] out = new byte[originalLength];
+		decompress(data, data.length, out, originalLength);
+		return out;
+	}
+
+	/**
+	 * Decompresses the first length bytes of data into out.
+	 */
+	@Override public void decompress(byte[] data, int length, byte[] out, int originalLength) throws DataFormatException {
+		int ip = 0;
+		int op = 0;
+		try {
+			while(ip < length) {
+				int token = data[ip++] & 0xff;
+				int literalLength = token >>> 4;
+				if(literalLength == 15) {
+					int b;
+					do {
+						b = data[ip++] & 0xff;
+						literalLength += b;
+					} while(b == 255);
+				}
+				if(ip + literalLength > length || op + literalLength > originalLength) {
+					throw new DataFormatException("invalid literal length");
+				}
+				System.arraycopy(data, ip, out, op, literalLength);
+				ip += literalLength;
+				op += literalLength;
+				if(ip == length) break;
+
+				int offset = (data[ip] & 0xff) | (data[ip + 1] & 0xff) << 8;
+				ip += 2;
+				if(offset == 0 || offset > op) {
+					throw new DataFormatException("invalid match offset");
+				}
+				int matchLength = token & 0x0f;
+				if(matchLength == 15) {
+					int b;
+					do {
+						b = data[ip++] & 0xff;
+						matchLength += b;
+					} while(b == 255);
+				}
+				matchLength += MIN_MATCH;
+				if(op + matchLength > originalLength) {
+					throw new DataFormatException("invalid match length");
+				}
+				int ref = op - offset;
+				if(offset >= matchLength) {
+					System.arraycopy(out, ref, out, op, matchLength);
+					op += matchLength;
+				} else {
+					for(int i=0;i<matchLength;i++) {
+						out[op++] = out[ref++];
+					}
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new DataFormatException("truncated block");
+		}
+		if(op != originalLength || ip > length) {
+			throw new DataFormatException("invalid block length");
+		}
+	}
+
+	@Override public Codec getCodec() {
+		return Codec.LZ4;
+	}
+}
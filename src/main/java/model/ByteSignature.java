@@ -4,7 +4,13 @@ public enum ByteSignature {
 	FILE(  0x020124b50L),
 	CHUNK( 0x080742b50L),
 	END(   0x108084b50L),
-	PART(  0x132132123L);
+	PART(  0x132132123L),
+	ARCHIVE(0x159594b50L),
+	BLOCK( 0x046554b50L),
+	DIRECTORY(0x002014b50L),
+	STORED(0x053544b50L),
+	SOLID( 0x0534f4b50L),
+	REFERENCE(0x052464b50L);
 
 	private long value;
 
@@ -15,4 +21,12 @@ public enum ByteSignature {
 	public long getValue() {
 		return this.value;
 	}
+
+	public static ByteSignature fromValue(long value) {
+		for(ByteSignature byteSignature : ByteSignature.values()) {
+			if(byteSignature.value == value)
+				return byteSignature;
+		}
+		return null;
+	}
 }
@@ -0,0 +1,27 @@
+package model;
+
+/**
+ * Compression codec of the blocks of an archive. The value is recorded in the archive header.
+ */
+public enum Codec {
+	DEFLATE(0),
+	LZ4(1);
+
+	private int value;
+
+	Codec(int value) {
+		this.value = value;
+	}
+
+	public int getValue() {
+		return this.value;
+	}
+
+	public static Codec fromInteger(int value) {
+		for(Codec codec : Codec.values()) {
+			if(codec.value == value)
+				return codec;
+		}
+		return null;
+	}
+}
@@ -29,7 +29,11 @@ public class FileEntry {
 	public enum FileType {
 		FILE(0),
 		DIRECTORY(1),
-		SYMLINK(2);
+		SYMLINK(2),
+		/**
+		 * Tombstone of an entry deleted since the previous archive. Written only in incremental archives.
+		 */
+		DELETED(3);
 
 		private int value;
 		FileType(int value) {
@@ -0,0 +1,49 @@
+package model;
+
+/**
+ * Location of a file entry in the archive, recorded in the central directory.
+ */
+public class IndexEntry {
+	private FileEntry fileEntry;
+	private long offset;
+	private int blockCount;
+	private long compressedSize;
+	private long checksum;
+
+	public IndexEntry(FileEntry fileEntry, long offset, int blockCount, long compressedSize) {
+		this(fileEntry, offset, blockCount, compressedSize, -1);
+	}
+
+	public IndexEntry(FileEntry fileEntry, long offset, int blockCount, long compressedSize, long checksum) {
+		this.fileEntry = fileEntry;
+		this.offset = offset;
+		this.blockCount = blockCount;
+		this.compressedSize = compressedSize;
+		this.checksum = checksum;
+	}
+
+	public FileEntry getFileEntry() {
+		return fileEntry;
+	}
+
+	/**
+	 * Offset of the first block of the entry, counted from the beginning of the archive data
+	 * without part headers.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	public int getBlockCount() {
+		return blockCount;
+	}
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/**
+	 * CRC32C of the content of the entry, or -1 if the archive was written by a version without checksums.
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+}
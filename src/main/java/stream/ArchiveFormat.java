@@ -0,0 +1,339 @@
+package stream;
+
+import model.ByteSignature;
+import model.Codec;
+import model.FileEntry;
+import model.IndexEntry;
+import util.BufferPool;
+import util.Crc32c;
+import util.RWUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the framing of the archive format.
+ *
+ * Version 1 (legacy) archives are a bare sequence of raw deflate blocks. The end of each block
+ * can only be found by inflating it.
+ * Version 2 archives start with an ARCHIVE header, and every compressed block is preceded by a
+ * BLOCK frame header holding its compressed and uncompressed length, so blocks can be located
+ * without inflating them. The archive ends with an END trailer frame.
+ * Version 3 archives write a central directory frame before the END trailer, and the trailer
+ * records the offset of the directory so entries can be listed and extracted without reading
+ * the whole archive.
+ * Version 4 archives may write a block as STORED frame instead of BLOCK frame. STORED frame
+ * holds the data uncompressed, for data that deflate can not make smaller.
+ * Version 5 archive header records the codec of the compressed blocks after the format version.
+ * Older archives are always deflate compressed.
+ * Version 6 archives may pack several small entries into one SOLID block. The block starts with
+ * SOLID signature followed by the FILE header and data of each entry, and the size in every FILE
+ * header is exactly the length of its data. In the central directory, the first entry of a solid
+ * block owns the block, and the other entries have the same offset with no block of their own.
+ * Version 7 frame headers record CRC32C of the frame data after the lengths, and the central
+ * directory records CRC32C of the content of every entry.
+ * Version 8 archives may be incremental, and hold DELETED entries without data for files deleted
+ * since the previous archive.
+ * Version 9 archives may hold REFERENCE entries for files with the same content as an earlier entry.
+ * A REFERENCE header is a FILE header with REFERENCE signature followed by the name of the earlier
+ * entry, and has no data. It is written in its own block or packed in a solid block like a file.
+ */
+final class ArchiveFormat {
+	static final int LEGACY_VERSION = 1;
+	static final int INDEXED_VERSION = 3;
+	static final int CODEC_VERSION = 5;
+	static final int CHECKSUM_VERSION = 7;
+	static final int CURRENT_VERSION = 9;
+
+	static final int ARCHIVE_HEADER_LENGTH = 8 + 2 + 2;
+	static final int FRAME_HEADER_LENGTH = 8 + 4 + 4 + 4;
+	static final int PADDING_LENGTH = 1024;
+	static final int TRAILER_LENGTH = 8 + 8 + PADDING_LENGTH;
+
+	/**
+	 * Largest chunk size of a writer. Frame headers are not covered by the checksum, so readers reject
+	 * block frames longer than MAX_BLOCK_FRAME_LENGTH, which leaves room for entry headers in the block
+	 * and for data that grows when compressed.
+	 */
+	static final int MAX_CHUNK_SIZE = 1024*1024*32;
+	static final int MAX_BLOCK_FRAME_LENGTH = MAX_CHUNK_SIZE * 2;
+	static final int MAX_DIRECTORY_FRAME_LENGTH = 1024*1024*1024;
+
+	/**
+	 * A compressed block read from the archive together with its frame header.
+	 * Only the first length bytes of data belong to the block. Checksum is -1 if the
+	 * archive version has no checksums.
+	 */
+	static class Frame {
+		private ByteSignature signature;
+		private int originalLength;
+		private byte[] data;
+		private int length;
+		private long checksum;
+
+		Frame(ByteSignature signature, int originalLength, byte[] data) {
+			this(signature, originalLength, data, data == null ? 0 : data.length, -1);
+		}
+
+		Frame(ByteSignature signature, int originalLength, byte[] data, int length, long checksum) {
+			this.signature = signature;
+			this.originalLength = originalLength;
+			this.data = data;
+			this.length = length;
+			this.checksum = checksum;
+		}
+
+		ByteSignature getSignature() {
+			return signature;
+		}
+
+		int getOriginalLength() {
+			return originalLength;
+		}
+
+		byte[] getData() {
+			return data;
+		}
+
+		int getLength() {
+			return length;
+		}
+
+		long getChecksum() {
+			return checksum;
+		}
+	}
+
+	/**
+	 * Format version and codec read from the archive header.
+	 */
+	static class Header {
+		private int version;
+		private Codec codec;
+
+		Header(int version, Codec codec) {
+			this.version = version;
+			this.codec = codec;
+		}
+
+		int getVersion() {
+			return version;
+		}
+
+		Codec getCodec() {
+			return codec;
+		}
+	}
+
+	private ArchiveFormat() {
+	}
+
+	/**
+	 * Write archive header. Header consist of signature, format version and codec.
+	 */
+	static void writeArchiveHeader(OutputStream out, Codec codec) throws IOException {
+		RWUtil.write64(out, ByteSignature.ARCHIVE.getValue());
+		RWUtil.write16(out, CURRENT_VERSION);
+		RWUtil.write16(out, codec.getValue());
+	}
+
+	/**
+	 * Read archive header and return format version and codec. If the stream does not start with
+	 * an archive header, push the bytes back and treat it as legacy archive.
+	 */
+	static Header readArchiveHeader(PushbackInputStream in) throws IOException {
+		byte[] buf = new byte[10];
+		int len = 0;
+		while(len < buf.length) {
+			int n = in.read(buf, len, buf.length - len);
+			if(n == -1) break;
+			len += n;
+		}
+		if(len < buf.length || RWUtil.get64(buf, 0) != ByteSignature.ARCHIVE.getValue()) {
+			in.unread(buf, 0, len);
+			return new Header(LEGACY_VERSION, Codec.DEFLATE);
+		}
+		int version = RWUtil.get16(buf, 8);
+		if(version > CURRENT_VERSION) {
+			throw new IOException("unsupported archive version " + version);
+		}
+		if(version < CODEC_VERSION) {
+			return new Header(version, Codec.DEFLATE);
+		}
+		RWUtil.readFully(in, buf, 0, 2);
+		Codec codec = Codec.fromInteger(RWUtil.get16(buf, 0));
+		if(codec == null) {
+			throw new IOException("unsupported codec " + RWUtil.get16(buf, 0));
+		}
+		return new Header(version, codec);
+	}
+
+	/**
+	 * Write frame header and the first length bytes of data as a block. signature is BLOCK for
+	 * compressed data and STORED for uncompressed data. checksum is CRC32C of the written data.
+	 */
+	static void writeBlockFrame(OutputStream out, ByteSignature signature, int originalLength, byte[] data, int length, long checksum) throws IOException {
+		writeFrameHeader(out, signature, length, originalLength, checksum);
+		out.write(data, 0, length);
+	}
+
+	/**
+	 * Write frame header of a block of given length. Header is written at once, since archive
+	 * output is not buffered.
+	 */
+	static void writeFrameHeader(OutputStream out, ByteSignature signature, int length, int originalLength, long checksum) throws IOException {
+		byte[] header = new byte[FRAME_HEADER_LENGTH];
+		RWUtil.put64(header, 0, signature.getValue());
+		RWUtil.put32(header, 8, length);
+		RWUtil.put32(header, 12, originalLength);
+		RWUtil.put32(header, 16, checksum);
+		out.write(header);
+	}
+
+	/**
+	 * Check the data of the frame against the checksum in its header. Frames of versions without
+	 * checksums are not checked.
+	 */
+	static void checkFrame(Frame frame) throws IOException {
+		if(frame.getChecksum() >= 0 && Crc32c.value(frame.getData(), 0, frame.getLength()) != frame.getChecksum()) {
+			throw new IOException("checksum mismatch in " + frame.getSignature() + " frame");
+		}
+	}
+
+	/**
+	 * Write central directory frame. Directory consist of number of entries followed by
+	 * file header, offset of first block, block count, compressed size and checksum of each entry.
+	 */
+	static void writeDirectory(OutputStream out, List<IndexEntry> indexEntries) throws IOException {
+		ByteArrayOutputStream directory = new ByteArrayOutputStream();
+		RWUtil.write32(directory, indexEntries.size());
+		for(IndexEntry indexEntry : indexEntries) {
+			FileEntry fileEntry = indexEntry.getFileEntry();
+			byte[] name = fileEntry.getName().getBytes(StandardCharsets.UTF_8);
+			RWUtil.write32(directory, name.length);
+			directory.write(name);
+			RWUtil.write16(directory, fileEntry.getType().getValue());
+			RWUtil.write64(directory, fileEntry.getSize());
+			RWUtil.write64(directory, indexEntry.getOffset());
+			RWUtil.write32(directory, indexEntry.getBlockCount());
+			RWUtil.write64(directory, indexEntry.getCompressedSize());
+			RWUtil.write32(directory, indexEntry.getChecksum());
+		}
+		byte[] data = directory.toByteArray();
+		writeFrameHeader(out, ByteSignature.DIRECTORY, data.length, data.length, Crc32c.value(data, 0, data.length));
+		out.write(data);
+	}
+
+	/**
+	 * Parse central directory from the data of DIRECTORY frame of an archive of given version.
+	 */
+	static List<IndexEntry> readDirectory(Frame frame, int version) throws IOException {
+		if(frame == null || frame.getSignature() != ByteSignature.DIRECTORY) {
+			throw new IOException("invalid central directory");
+		}
+		checkFrame(frame);
+		byte[] data = frame.getData();
+		int count = (int)RWUtil.get32(data, 0);
+		int off = 4;
+		List<IndexEntry> indexEntries = new ArrayList<>(count);
+		for(int i=0;i<count;i++) {
+			int nameLen = (int)RWUtil.get32(data, off);
+			String name = new String(data, off + 4, nameLen, StandardCharsets.UTF_8);
+			off += 4 + nameLen;
+			FileEntry fileEntry = new FileEntry(
+				name,
+				FileEntry.FileType.fromInteger(RWUtil.get16(data, off)),
+				RWUtil.get64(data, off + 2)
+			);
+			boolean hasChecksum = version >= CHECKSUM_VERSION;
+			indexEntries.add(new IndexEntry(
+				fileEntry,
+				RWUtil.get64(data, off + 10),
+				(int)RWUtil.get32(data, off + 18),
+				RWUtil.get64(data, off + 22),
+				hasChecksum ? RWUtil.get32(data, off + 30) : -1
+			));
+			off += hasChecksum ? 34 : 30;
+		}
+		return indexEntries;
+	}
+
+	/**
+	 * Write end trailer frame. End trailer indicates end of the archive and holds
+	 * the offset of central directory, followed by zero padding up to TRAILER_LENGTH.
+	 */
+	static void writeTrailer(OutputStream out, long directoryOffset) throws IOException {
+		RWUtil.write64(out, ByteSignature.END.getValue());
+		RWUtil.write64(out, directoryOffset);
+		RWUtil.writePadding(out, PADDING_LENGTH);
+	}
+
+	/**
+	 * Read end trailer frame, which is the last TRAILER_LENGTH bytes of the archive.
+	 * Return the offset of central directory.
+	 */
+	static long readTrailer(InputStream in) throws IOException {
+		byte[] trailer = new byte[16];
+		RWUtil.readFully(in, trailer, 0, trailer.length);
+		if(RWUtil.get64(trailer, 0) != ByteSignature.END.getValue()) {
+			throw new IOException("invalid end trailer");
+		}
+		return RWUtil.get64(trailer, 8);
+	}
+
+	/**
+	 * Read next frame of an archive of given version from the stream. Return null if the stream ended.
+	 * END frame is returned without data, the trailer following it is not consumed.
+	 * The data is not checked against the checksum, see checkFrame.
+	 */
+	static Frame readFrame(InputStream in, int version) throws IOException {
+		return readFrame(in, null, version);
+	}
+
+	/**
+	 * Read next frame from the stream into an array of the buffer pool, if the data fits in it.
+	 * Return null if the stream ended. Lengths in the frame header are checked before the data is
+	 * allocated: a block frame is at most MAX_BLOCK_FRAME_LENGTH long both compressed and
+	 * decompressed, and STORED and DIRECTORY frames have the same length in both fields.
+	 */
+	static Frame readFrame(InputStream in, BufferPool bufferPool, int version) throws IOException {
+		byte[] header = new byte[FRAME_HEADER_LENGTH];
+		int first = in.read(header, 0, 8);
+		if(first == -1) {
+			return null;
+		}
+		RWUtil.readFully(in, header, first, 8 - first);
+		ByteSignature signature = ByteSignature.fromValue(RWUtil.get64(header, 0));
+		if(signature == ByteSignature.END) {
+			return new Frame(signature, 0, null);
+		} else if(signature != ByteSignature.BLOCK && signature != ByteSignature.STORED && signature != ByteSignature.DIRECTORY) {
+			throw new IOException("invalid block frame");
+		}
+		boolean hasChecksum = version >= CHECKSUM_VERSION;
+		RWUtil.readFully(in, header, 8, hasChecksum ? 12 : 8);
+		int length = (int)RWUtil.get32(header, 8);
+		int originalLength = (int)RWUtil.get32(header, 12);
+		long checksum = hasChecksum ? RWUtil.get32(header, 16) : -1;
+		int maxLength = signature == ByteSignature.DIRECTORY ? MAX_DIRECTORY_FRAME_LENGTH : MAX_BLOCK_FRAME_LENGTH;
+		if(length < 0 || length > maxLength || originalLength < 0 || originalLength > maxLength
+			|| (signature != ByteSignature.BLOCK && length != originalLength)) {
+			throw new IOException("corrupt " + signature + " frame header, length " + length + " original length " + originalLength);
+		}
+		byte[] data = bufferPool != null && length <= bufferPool.getBufferSize() ? bufferPool.acquire() : new byte[length];
+		RWUtil.readFully(in, data, 0, length);
+		return new Frame(signature, originalLength, data, length, checksum);
+	}
+
+	/**
+	 * Return whether the frame holds a block of the archive content.
+	 */
+	static boolean isBlockFrame(Frame frame) {
+		return frame != null && (frame.getSignature() == ByteSignature.BLOCK || frame.getSignature() == ByteSignature.STORED);
+	}
+}
@@ -0,0 +1,88 @@
+package stream;
+
+import model.Codec;
+import model.IndexEntry;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies archives into a new multipart layout without decompressing them. Compressed blocks are
+ * copied byte for byte from the parts of the source archives into the parts of the output stream,
+ * so only part headers, the central directory and the end trailer are written anew.
+ */
+public final class ArchiveSplicer {
+
+	private ArchiveSplicer() {
+	}
+
+	/**
+	 * Copy the archive into out, which splits it into parts of its own size. Archives of every
+	 * version can be copied, since offsets in the archive do not depend on its parts.
+	 */
+	public static void resplit(String filePath, MultipartFileOutputStream out) throws IOException {
+		try(MultipartFileInputStream in = new MultipartFileInputStream(filePath)) {
+			in.transferTo(0, in.length(), out);
+		}
+	}
+
+	/**
+	 * Merge the archives into one archive written to out. The blocks of every archive are copied
+	 * in the given order, followed by a central directory of all their entries with offsets moved
+	 * to the merged archive. Decompressing the merged archive has the same effect as decompressing
+	 * the archives one after another, so an entry of a later archive replaces an earlier entry of
+	 * the same name. The archives must be written with the same codec by a version with checksums.
+	 * Return the number of entries of the merged archive.
+	 */
+	public static int merge(List<String> filePaths, MultipartFileOutputStream out) throws IOException {
+		if(filePaths == null || filePaths.isEmpty()) {
+			throw new IllegalArgumentException("no archive to merge.");
+		}
+		List<MultipartFileInputStream> ins = new ArrayList<>(filePaths.size());
+		try {
+			Codec codec = null;
+			int[] versions = new int[filePaths.size()];
+			for(int i=0;i<filePaths.size();i++) {
+				MultipartFileInputStream in = new MultipartFileInputStream(filePaths.get(i));
+				ins.add(in);
+				PushbackInputStream pin = new PushbackInputStream(in, ArchiveFormat.ARCHIVE_HEADER_LENGTH);
+				ArchiveFormat.Header header = ArchiveFormat.readArchiveHeader(pin);
+				if(header.getVersion() < ArchiveFormat.CHECKSUM_VERSION) {
+					throw new IOException("archive " + filePaths.get(i) + " of version " + header.getVersion() + " can't be merged");
+				}
+				if(codec != null && header.getCodec() != codec) {
+					throw new IOException("archive " + filePaths.get(i) + " is compressed with " + header.getCodec() + " instead of " + codec);
+				}
+				codec = header.getCodec();
+				versions[i] = header.getVersion();
+			}
+
+			ArchiveFormat.writeArchiveHeader(out, codec);
+			long position = ArchiveFormat.ARCHIVE_HEADER_LENGTH;
+			List<IndexEntry> indexEntries = new ArrayList<>();
+			for(int i=0;i<ins.size();i++) {
+				MultipartFileInputStream in = ins.get(i);
+				in.seek(in.length() - ArchiveFormat.TRAILER_LENGTH);
+				long directoryOffset = ArchiveFormat.readTrailer(in);
+				in.seek(directoryOffset);
+				ArchiveFormat.Frame frame = ArchiveFormat.readFrame(in, versions[i]);
+				long shift = position - ArchiveFormat.ARCHIVE_HEADER_LENGTH;
+				for(IndexEntry indexEntry : ArchiveFormat.readDirectory(frame, versions[i])) {
+					indexEntries.add(new IndexEntry(indexEntry.getFileEntry(), indexEntry.getOffset() + shift,
+						indexEntry.getBlockCount(), indexEntry.getCompressedSize(), indexEntry.getChecksum()));
+				}
+				in.transferTo(ArchiveFormat.ARCHIVE_HEADER_LENGTH, directoryOffset - ArchiveFormat.ARCHIVE_HEADER_LENGTH, out);
+				position += directoryOffset - ArchiveFormat.ARCHIVE_HEADER_LENGTH;
+			}
+			ArchiveFormat.writeDirectory(out, indexEntries);
+			ArchiveFormat.writeTrailer(out, position);
+			return indexEntries.size();
+		} finally {
+			for(MultipartFileInputStream in : ins) {
+				in.close();
+			}
+		}
+	}
+}
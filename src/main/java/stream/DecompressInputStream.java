@@ -6,9 +6,11 @@ import model.ByteSignature;
 import model.FileEntry;
 import util.RWUtil;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.zip.DataFormatException;
 
 /**
@@ -16,38 +18,154 @@ import java.util.zip.DataFormatException;
  */
 public class DecompressInputStream extends InputStream {
 
-	private PushbackInputStream in;
-	private DecompressionStrategy decompressionStrategy;
+	/**
+	 * Decompressed data of a block. Only the first length bytes of data belong to the block.
+	 */
+	static class Block {
+		private byte[] data;
+		private int length;
+
+		Block(byte[] data) {
+			this(data, data.length);
+		}
+
+		Block(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+
+		byte[] getData() {
+			return data;
+		}
+
+		int getLength() {
+			return length;
+		}
+	}
+
+	/**
+	 * A source of decompressed blocks in archive order.
+	 */
+	interface BlockSource extends Closeable {
+		/**
+		 * Return next decompressed block, or null if there is no more block in the archive.
+		 */
+		Block nextBlock() throws IOException, DataFormatException;
+
+		/**
+		 * Hand back a block which has been read completely, so that its array can be reused.
+		 */
+		default void release(Block block) {
+		}
+	}
+
+	/**
+	 * Decompresses blocks one by one in the calling thread. Legacy archives are inflated until
+	 * the inflater finishes, framed archives are read frame by frame and checked against their checksums.
+	 */
+	static class SerialBlockSource implements BlockSource {
+		private PushbackInputStream in;
+		private int version;
+		private DecompressionStrategy decompressionStrategy;
+
+		SerialBlockSource(PushbackInputStream in, ArchiveFormat.Header header, DecompressionStrategy decompressionStrategy) {
+			this.in = in;
+			this.version = header.getVersion();
+			this.decompressionStrategy = selectStrategy(header, decompressionStrategy);
+		}
+
+		@Override public Block nextBlock() throws IOException, DataFormatException {
+			if(version == ArchiveFormat.LEGACY_VERSION) {
+				return new Block(decompressionStrategy.decompress(in));
+			}
+			ArchiveFormat.Frame frame = ArchiveFormat.readFrame(in, version);
+			if(!ArchiveFormat.isBlockFrame(frame)) {
+				return null;
+			}
+			ArchiveFormat.checkFrame(frame);
+			if(frame.getSignature() == ByteSignature.STORED) {
+				return new Block(frame.getData());
+			}
+			return new Block(decompressionStrategy.decompress(frame.getData(), frame.getOriginalLength()));
+		}
+
+		@Override public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	private BlockSource blockSource;
 	private boolean done;
 	private FileEntry processingFile;
 	private FileEntry currentFile;
-	private byte[] currentBlock;
+	private String processingReference;
+	private String currentReference;
+	private Block currentBlock;
 	private int currentRead;
+	private int entryEnd;
+	private byte[] skipBuffer;
 
 	public DecompressInputStream(InputStream in) throws IOException, DataFormatException {
 		this(in, new InflaterDecompressionStrategy());
 	}
+
+	public DecompressInputStream(InputStream in, DecompressionStrategy decompressionStrategy) throws IOException, DataFormatException {
+		this(openSerialBlockSource(in, decompressionStrategy));
+	}
+
 	/**
-	 * Creates a new stream. Decompress the first block and check its signature.
+	 * Creates a new stream reading blocks from blockSource. Decompress the first block and check its signature.
+	 * The block source is closed if the first block can't be read.
 	 */
-	public DecompressInputStream(InputStream in, DecompressionStrategy decompressionStrategy) throws IOException, DataFormatException {
+	DecompressInputStream(BlockSource blockSource) throws IOException, DataFormatException {
+		this.blockSource = blockSource;
+		this.processingFile = null;
+		this.currentFile = null;
+		this.done = false;
+
+		this.currentRead = 0;
+		try {
+			this.currentBlock = blockSource.nextBlock();
+			if(currentBlock == null || !isEntryHeader(readHeader()))
+				throw new IOException("invalid file format");
+		} catch (IOException | DataFormatException | RuntimeException e) {
+			try {
+				blockSource.close();
+			} catch (IOException closeException) {
+				e.addSuppressed(closeException);
+			}
+			throw e;
+		}
+	}
+
+	/*
+	 * Validate arguments and wrap the stream so that legacy archives can be pushed back after
+	 * probing for the archive header.
+	 */
+	static PushbackInputStream openArchive(InputStream in, DecompressionStrategy decompressionStrategy) {
 		if(in == null) {
 			throw new IllegalArgumentException("Inputstream is null.");
 		}
 		if(decompressionStrategy == null) {
 			throw new IllegalArgumentException("DecompressionStrategy is null.");
 		}
-		this.in = new PushbackInputStream(in, 1024*12);
-		this.decompressionStrategy = decompressionStrategy;
-		this.processingFile = null;
-		this.currentFile = null;
-		this.done = false;
+		return new PushbackInputStream(in, 1024*12);
+	}
 
-		this.currentRead = 0;
-		this.currentBlock = decompressionStrategy.decompress(this.in);
-		ByteSignature byteSignature = readHeader();
-		if(byteSignature != ByteSignature.FILE)
-			throw new IOException("invalid file format");
+	/*
+	 * Use the given strategy if it decompresses the codec of the archive, otherwise the default
+	 * strategy of the codec.
+	 */
+	static DecompressionStrategy selectStrategy(ArchiveFormat.Header header, DecompressionStrategy decompressionStrategy) {
+		if(decompressionStrategy.getCodec() == header.getCodec()) {
+			return decompressionStrategy;
+		}
+		return DecompressionStrategy.forCodec(header.getCodec());
+	}
+
+	private static BlockSource openSerialBlockSource(InputStream in, DecompressionStrategy decompressionStrategy) throws IOException {
+		PushbackInputStream pin = openArchive(in, decompressionStrategy);
+		return new SerialBlockSource(pin, ArchiveFormat.readArchiveHeader(pin), decompressionStrategy);
 	}
 
 	/**
@@ -55,11 +173,25 @@ public class DecompressInputStream extends InputStream {
 	 */
 	public FileEntry getNextEntry() {
 		if(done) {
+			processingReference = null;
 			return null;
 		}
+		processingReference = currentReference;
 		return processingFile = currentFile;
 	}
 
+	/**
+	 * Get the name of the earlier entry holding the content of current entry, if current entry is
+	 * a reference. Reading a reference returns no data, the content has to be taken from the
+	 * earlier entry. Return null if current entry is not a reference.
+	 */
+	public String getReference() {
+		return processingReference;
+	}
+
+	/**
+	 * Skip remaining data of current file, so that getNextEntry returns the next file.
+	 */
 	public void closeEntry() throws IOException {
 		if(currentFile == null) {
 			throw new IllegalStateException("Put file entry into the stream before close.");
@@ -67,7 +199,10 @@ public class DecompressInputStream extends InputStream {
 		if(done) {
 			return;
 		}
-		read();
+		if(skipBuffer == null) {
+			skipBuffer = new byte[1024*8];
+		}
+		while(read(skipBuffer) != -1);
 		processingFile = null;
 	}
 
@@ -81,26 +216,32 @@ public class DecompressInputStream extends InputStream {
 
 	/**
 	 * Reads from the current block into an array of bytes.
-	 * if remaining byte in current block is bigger than length,
-	 * read next block. If next block starts with FILE signature,
-	 * stop processing current file and calling this function afterward
-	 * will return -1 until you set next file entry by getNextEntry function.
+	 * if remaining byte of current file in current block is bigger than length,
+	 * read next block. If next block starts with FILE signature, or the next file
+	 * of a solid block follows, stop processing current file and calling this function
+	 * afterward will return -1 until you set next file entry by getNextEntry function.
 	 */
 	@Override public int read(byte[] b, int off, int length) throws IOException {
 		if(done || processingFile == null)
 			return -1;
 
 		int returnLen = 0;
-		int remain = currentBlock.length - currentRead;
+		int remain = entryEnd - currentRead;
 		if(remain < length) {
-			System.arraycopy(currentBlock, currentRead, b, off, remain);
+			System.arraycopy(currentBlock.getData(), currentRead, b, off, remain);
 			currentRead += remain;
 			returnLen += remain;
+			if(currentRead < currentBlock.getLength()) {
+				readHeader();
+				processingFile = null;
+				return returnLen == 0 ? -1 : returnLen;
+			}
 			try {
 				currentRead = 0;
-				currentBlock = decompressionStrategy.decompress(this.in);
-				ByteSignature byteSignature = readHeader();
-				if(byteSignature == ByteSignature.FILE) {
+				blockSource.release(currentBlock);
+				currentBlock = blockSource.nextBlock();
+				ByteSignature byteSignature = currentBlock == null ? ByteSignature.END : readHeader();
+				if(isEntryHeader(byteSignature)) {
 					processingFile = null;
 				} else if(byteSignature == ByteSignature.END) {
 					done = true;
@@ -113,7 +254,7 @@ public class DecompressInputStream extends InputStream {
 				throw new IOException(e.getMessage());
 			}
 		} else {
-			System.arraycopy(currentBlock, currentRead, b, off, length);
+			System.arraycopy(currentBlock.getData(), currentRead, b, off, length);
 			currentRead += length;
 			returnLen += length;
 		}
@@ -121,29 +262,58 @@ public class DecompressInputStream extends InputStream {
 	}
 
 	public void close() throws IOException {
-		in.close();
+		blockSource.close();
 	}
 
 	/*
-	 * Read header information from currentBlock. Return header type.
+	 * Read header information from currentBlock at current position. Return header type.
 	 * If header type is FILE, assign current FileEntry with header information.
+	 * SOLID header is followed by the FILE header of the first file packed in the block.
+	 * Data of a packed file ends after its size, where the header of the next packed file begins.
+	 * REFERENCE header is a FILE header followed by the name of the entry it refers to, and has no data.
 	 */
 	private ByteSignature readHeader() {
-		long signature = RWUtil.get64(currentBlock, 0);
+		byte[] data = currentBlock.getData();
+		long signature = RWUtil.get64(data, currentRead);
 		if(signature == ByteSignature.END.getValue()) {
 			currentRead += 8;
 			return ByteSignature.END;
 		} else if(signature == ByteSignature.CHUNK.getValue()) {
 			currentRead += 8;
+			entryEnd = currentBlock.getLength();
 			return ByteSignature.CHUNK;
 		}
-		int nameLen = (int)RWUtil.get32(currentBlock, 8);
+		boolean packed = currentRead > 0;
+		if(signature == ByteSignature.SOLID.getValue()) {
+			currentRead += 8;
+			packed = true;
+		}
+		boolean reference = RWUtil.get64(data, currentRead) == ByteSignature.REFERENCE.getValue();
+		int nameLen = (int)RWUtil.get32(data, currentRead + 8);
 		currentFile = new FileEntry(
-			new String(currentBlock, 12, nameLen),
-			FileEntry.FileType.fromInteger(RWUtil.get16(currentBlock, nameLen+12)),
-			RWUtil.get64(currentBlock, nameLen+14)
+			new String(data, currentRead + 12, nameLen, StandardCharsets.UTF_8),
+			FileEntry.FileType.fromInteger(RWUtil.get16(data, currentRead + nameLen + 12)),
+			RWUtil.get64(data, currentRead + nameLen + 14)
 		);
 		currentRead += 8 + 4 + nameLen + 2 + 8;
+		currentReference = null;
+		if(reference) {
+			int targetLen = (int)RWUtil.get32(data, currentRead);
+			currentReference = new String(data, currentRead + 4, targetLen, StandardCharsets.UTF_8);
+			currentRead += 4 + targetLen;
+			entryEnd = currentRead;
+			return ByteSignature.REFERENCE;
+		}
+		if(packed) {
+			long dataLength = currentFile.getType() == FileEntry.FileType.DIRECTORY ? 0 : currentFile.getSize();
+			entryEnd = currentRead + (int)dataLength;
+		} else {
+			entryEnd = currentBlock.getLength();
+		}
 		return ByteSignature.FILE;
 	}
+
+	private static boolean isEntryHeader(ByteSignature byteSignature) {
+		return byteSignature == ByteSignature.FILE || byteSignature == ByteSignature.REFERENCE;
+	}
 }
\ No newline at end of file
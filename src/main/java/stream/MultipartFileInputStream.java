@@ -1,80 +1,373 @@
 package stream;
 
 import model.ByteSignature;
+import util.BufferPool;
 import util.RWUtil;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.zip.ZipException;
-import java.util.zip.ZipInputStream;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This class implements an input stream for reading multipart splitted files generated by MultipartFileInputStream.
+ * This class implements an input stream for reading multipart splitted files generated by MultipartFileOutputStream.
+ * Parts are read through FileChannel in regions of the read ahead size, so small reads of headers are
+ * served from memory.
+ *
+ * Parts are looked up in the directory of the file and in the directories listed in its stripe file.
+ * When the data is striped over several directories, stripe units go round-robin to the directories,
+ * and part j of directory d holds the units of d from j part sizes on. Every directory has its own read
+ * thread, and regions are read ahead over two stripe units of every directory, so several devices are
+ * read concurrently. Regions do not cross stripe units or parts. The number of regions read ahead
+ * starts at one after opening or seeking, and doubles with every region consumed, so random access
+ * reads little more than it needs. Parts in a single directory are read in the calling thread, one
+ * region at a time.
  */
 public class MultipartFileInputStream extends InputStream {
+	public static final int DEFAULT_READ_AHEAD = 1024*128;
+
+	/*
+	 * Regions read ahead for every directory in sequential reading, at least two stripe units.
+	 */
+	private static final int REGIONS_PER_DIRECTORY = 4;
+	private static final int MAX_REGIONS_PER_DIRECTORY = 64;
+
 	private String filePath;
-	private Path currentFile;
-	private int partRead;
+	private List<Path> directories;
+	private long stripeUnit;
+	private Path[] partPaths;
+	private int[] partDirectories;
 	private int partSize;
-	private InputStream inputStream;
+	private long[] partOffsets;
+	private long[] partLengths;
+	private long length;
+	private int readAhead;
+	private BufferPool bufferPool;
+	private ExecutorService[] readTaskExecutors;
+	private List<Map<Integer, FileChannel>> openParts;
+	private Deque<Future<Region>> pendingRegions = new ArrayDeque<>();
+	private int maxPendingRegions;
+	private int window;
+	private long nextRegionPosition;
+	private Region currentRegion;
+
+	/*
+	 * Data of a part read ahead.
+	 */
+	private static class Region {
+		private byte[] data;
+		private int length;
+		private int position;
 
+		private Region(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
 
 	public MultipartFileInputStream(String filePath) throws IOException {
+		this(filePath, DEFAULT_READ_AHEAD);
+	}
+
+	/**
+	 * Creates a new stream reading parts in regions of readAhead bytes.
+	 */
+	public MultipartFileInputStream(String filePath, int readAhead) throws IOException {
 		if(filePath == null || filePath.isEmpty()) {
 			throw new IllegalArgumentException("Invalid file path.");
 		}
 		if(!filePath.endsWith("zip")) {
 			throw new IOException("Invalid file type");
 		}
+		if(readAhead < PART_HEADER_LENGTH) {
+			throw new IllegalArgumentException("Invalid read ahead size." + readAhead);
+		}
 		this.filePath = filePath;
-		this.partRead = 0;
+		this.readAhead = readAhead;
+		this.directories = getDirectories();
 		this.partSize = getPartSize();
-		openNextPart();
+		getPartOffsets();
+		this.maxPendingRegions = directories.size() == 1 ? 1
+			: directories.size() * (int)Math.min(MAX_REGIONS_PER_DIRECTORY, Math.max(REGIONS_PER_DIRECTORY, 2 * ((stripeUnit - 1) / readAhead + 1)));
+		this.bufferPool = new BufferPool(readAhead, maxPendingRegions + 1);
+		this.openParts = new ArrayList<>(directories.size());
+		for(int i=0;i<directories.size();i++) {
+			openParts.add(new HashMap<>());
+		}
+		this.readTaskExecutors = new ExecutorService[directories.size() == 1 ? 0 : directories.size()];
+		for(int i=0;i<readTaskExecutors.length;i++) {
+			readTaskExecutors[i] = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "youngzip-part-read");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		seek(0);
 	}
 
-	private byte[] buf = new byte[12];
-	private int readPartHeader() throws IOException {
-		readFully(buf, 0, 12);
+	private static final int PART_HEADER_LENGTH = 12;
+
+	/*
+	 * Read header of the part and return its part number.
+	 */
+	private static int readPartHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(PART_HEADER_LENGTH);
+		while(header.hasRemaining()) {
+			if(channel.read(header, header.position()) == -1) {
+				throw new EOFException();
+			}
+		}
+		byte[] buf = header.array();
 		long signature = RWUtil.get64(buf, 0);
 		if(signature != ByteSignature.PART.getValue()) {
 			throw new IOException("invalid currentFile type");
 		}
-		int partNumber = (int)RWUtil.get32(buf, 8);
-		return partNumber;
+		return (int)RWUtil.get32(buf, 8);
+	}
+
+	/**
+	 * Directory of the file followed by the directories listed in its stripe file, after the
+	 * stripe unit.
+	 */
+	private List<Path> getDirectories() throws IOException {
+		List<Path> paths = new ArrayList<>();
+		paths.add(MultipartFileOutputStream.getDirectory(filePath));
+		stripeUnit = Long.MAX_VALUE;
+		Path stripeFile = MultipartFileOutputStream.getStripeFile(filePath);
+		if(Files.exists(stripeFile)) {
+			List<String> lines = Files.readAllLines(stripeFile, StandardCharsets.UTF_8);
+			try {
+				stripeUnit = lines.isEmpty() ? 0 : Long.parseLong(lines.get(0));
+			} catch (NumberFormatException e) {
+				stripeUnit = 0;
+			}
+			if(stripeUnit <= 0) {
+				throw new IOException("invalid stripe unit in " + stripeFile);
+			}
+			for(String line : lines.subList(1, lines.size())) {
+				if(!line.isEmpty()) {
+					paths.add(Paths.get(line));
+				}
+			}
+		}
+		return paths;
 	}
 
 	/**
-	 * get total number of partition file by reading file.
+	 * get total number of partition file by reading the last partition, and find every partition.
 	 */
 	private int getPartSize() throws IOException {
-		inputStream = Files.newInputStream(Paths.get(filePath));
-		int lastPartNumber = readPartHeader();
-		inputStream.close();
+		String fileName = Paths.get(filePath).getFileName().toString();
+		int lastDirectory = findDirectory(fileName);
+		Path lastPath = directories.get(lastDirectory).resolve(fileName);
+		int lastPartNumber;
+		try(FileChannel channel = FileChannel.open(lastPath, StandardOpenOption.READ)) {
+			lastPartNumber = readPartHeader(channel);
+		}
+		partPaths = new Path[lastPartNumber + 1];
+		partDirectories = new int[lastPartNumber + 1];
+		for(int i=0;i<lastPartNumber;i++) {
+			String partName = fileName.substring(0, fileName.length() - 2) + i;
+			partDirectories[i] = findDirectory(partName);
+			partPaths[i] = directories.get(partDirectories[i]).resolve(partName);
+		}
+		partDirectories[lastPartNumber] = lastDirectory;
+		partPaths[lastPartNumber] = lastPath;
 		return lastPartNumber + 1;
 	}
 
+	private int findDirectory(String fileName) throws IOException {
+		for(int i=0;i<directories.size();i++) {
+			if(Files.exists(directories.get(i).resolve(fileName))) {
+				return i;
+			}
+		}
+		throw new NoSuchFileException(fileName);
+	}
+
 	/**
-	 * open next partition file and read its header.
+	 * get offset of each partition file's data among the stripe units of its directory, counted
+	 * without part headers, and the total length of the data. The units of every directory must
+	 * add up to its share of the total length.
 	 */
-	private void openNextPart() throws IOException {
-		if(partRead == partSize - 1) {
-			currentFile = Paths.get(filePath);
-		} else {
-			currentFile = Paths.get(filePath.substring(0,filePath.length()-2) + partRead);
+	private void getPartOffsets() throws IOException {
+		int n = directories.size();
+		partOffsets = new long[partSize];
+		partLengths = new long[partSize];
+		long[] directoryLengths = new long[n];
+		for(int i=0;i<partSize;i++) {
+			partOffsets[i] = directoryLengths[i % n];
+			partLengths[i] = Files.size(partPaths[i]) - PART_HEADER_LENGTH;
+			directoryLengths[i % n] += partLengths[i];
+			length += partLengths[i];
 		}
-		inputStream = Files.newInputStream(currentFile);
-		int partFileNum = readPartHeader();
-		if(partFileNum != partRead) {
-			throw new IOException("Invalid partition number");
+		long units = length / stripeUnit;
+		for(int i=0;i<n;i++) {
+			long expected = (units / n + (i < units % n ? 1 : 0)) * stripeUnit + (i == units % n ? length % stripeUnit : 0);
+			if(directoryLengths[i] != expected) {
+				throw new IOException("parts of " + filePath + " do not match its stripe units");
+			}
 		}
 	}
 
+	/*
+	 * Directory of the stripe unit holding the data at position.
+	 */
+	private int getStripeDirectory(long position) {
+		return (int)(position / stripeUnit % directories.size());
+	}
+
+	/*
+	 * Position of the data among the stripe units of its directory.
+	 */
+	private long getStripePosition(long position) {
+		return position / stripeUnit / directories.size() * stripeUnit + position % stripeUnit;
+	}
+
+	/*
+	 * Number of bytes from position to the end of its stripe unit or part, at most max.
+	 */
+	private long getSegmentLength(int partNumber, long position, long max) {
+		long partEnd = partOffsets[partNumber] + partLengths[partNumber];
+		return Math.min(max, Math.min(stripeUnit - position % stripeUnit, partEnd - getStripePosition(position)));
+	}
+
+	/*
+	 * Position of the data in the file of the part holding it.
+	 */
+	private long getFilePosition(int partNumber, long position) {
+		return PART_HEADER_LENGTH + getStripePosition(position) - partOffsets[partNumber];
+	}
+
+	/*
+	 * Whether the segment of length bytes from position ends its part.
+	 */
+	private boolean isPartEnd(int partNumber, long position, long length) {
+		return getStripePosition(position) + length == partOffsets[partNumber] + partLengths[partNumber];
+	}
+
+	/*
+	 * Queue reading regions following the last queued one in the read threads of their parts,
+	 * until the window is full.
+	 */
+	private void readAhead() {
+		while(pendingRegions.size() < window && nextRegionPosition < length()) {
+			int partNumber = getPartNumber(nextRegionPosition);
+			long position = nextRegionPosition;
+			int length = (int)getSegmentLength(partNumber, position, readAhead);
+			long filePosition = getFilePosition(partNumber, position);
+			boolean last = isPartEnd(partNumber, position, length);
+			Map<Integer, FileChannel> parts = openParts.get(partDirectories[partNumber]);
+			pendingRegions.add(submit(partDirectories[partNumber], () ->
+				readRegion(parts, partNumber, filePosition, length, last)));
+			nextRegionPosition += length;
+		}
+	}
+
+	/*
+	 * Run the read in the read thread of the directory, or right away without read threads.
+	 */
+	private Future<Region> submit(int directory, Callable<Region> read) {
+		if(readTaskExecutors.length == 0) {
+			FutureTask<Region> future = new FutureTask<>(read);
+			future.run();
+			return future;
+		}
+		return readTaskExecutors[directory].submit(read);
+	}
+
+	/*
+	 * Read length bytes of the part at position of its file, opening it and checking its header
+	 * first. The part is closed after its last region. Open parts of a read thread are only
+	 * accessed in that thread.
+	 */
+	private Region readRegion(Map<Integer, FileChannel> parts, int partNumber, long position, int length, boolean last) throws IOException {
+		byte[] data = bufferPool.acquire();
+		try {
+			readPart(parts, partNumber, position, data, 0, length, last);
+		} catch (IOException e) {
+			bufferPool.release(data);
+			throw e;
+		}
+		return new Region(data, length);
+	}
+
+	private void readPart(Map<Integer, FileChannel> parts, int partNumber, long position, byte[] b, int off, int length, boolean last) throws IOException {
+		FileChannel channel = parts.get(partNumber);
+		if(channel == null) {
+			channel = FileChannel.open(partPaths[partNumber], StandardOpenOption.READ);
+			parts.put(partNumber, channel);
+			if(readPartHeader(channel) != partNumber) {
+				throw new IOException("Invalid partition number");
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(b, off, length);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position() - off) == -1) {
+				throw new EOFException();
+			}
+		}
+		if(last) {
+			parts.remove(partNumber).close();
+		}
+	}
+
+	/*
+	 * Make the next region read ahead current, and widen the window. Return false at the end of
+	 * the last partition.
+	 */
+	private boolean nextRegion() throws IOException {
+		if(currentRegion != null) {
+			bufferPool.release(currentRegion.data);
+			currentRegion = null;
+		}
+		readAhead();
+		Future<Region> future = pendingRegions.poll();
+		if(future == null) {
+			return false;
+		}
+		try {
+			currentRegion = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+		window = Math.min(window * 2, maxPendingRegions);
+		if(readTaskExecutors.length > 0) {
+			readAhead();
+		}
+		return true;
+	}
+
 	@Override public int read() throws IOException {
-		return read(new byte[1]);
+		byte[] b = new byte[1];
+		return read(b) == -1 ? -1 : b[0] & 0xff;
 	}
 
 	@Override public int read(byte[] b) throws IOException {
@@ -82,40 +375,135 @@ public class MultipartFileInputStream extends InputStream {
 	}
 
 	/**
-	 * Reads from the current partition. if current partition arrived EOF,
-	 * Open next partition and read remaining byte from the partition.
-	 * If current partition is last partition, just return readLength
+	 * Reads from the current region of current partition, continuing with the next region of
+	 * this or the next partition when it is consumed. Without read threads, reads as large as a
+	 * region go to the partition directly.
+	 * Return -1 after the end of the last partition.
 	 */
 	@Override public int read(byte[] b, int off, int length) throws IOException {
-		if(partRead == partSize) return -1;
-
-		int readLength = inputStream.read(b, off, length);
-		if(readLength == -1 || readLength != length) {
-			if(partRead < partSize) {
-				inputStream.close();
-				partRead++;
-				if(partRead == partSize) {
-					return readLength;
-				}
-				openNextPart();
-				if(readLength < 0) readLength = 0;
-				int newReadLength = inputStream.read(b, off + readLength, length - readLength);
-				if(newReadLength > 0) readLength += newReadLength;
+		if(length == 0) return 0;
+		if(currentRegion == null || currentRegion.position == currentRegion.length) {
+			if(readTaskExecutors.length == 0 && length >= readAhead && nextRegionPosition < length()) {
+				return readDirect(b, off, length);
 			}
+			if(!nextRegion()) {
+				return -1;
+			}
+		}
+		int n = Math.min(length, currentRegion.length - currentRegion.position);
+		System.arraycopy(currentRegion.data, currentRegion.position, b, off, n);
+		currentRegion.position += n;
+		return n;
+	}
 
+	private int readDirect(byte[] b, int off, int length) throws IOException {
+		if(currentRegion != null) {
+			bufferPool.release(currentRegion.data);
+			currentRegion = null;
 		}
-		return readLength;
+		int partNumber = getPartNumber(nextRegionPosition);
+		int n = (int)getSegmentLength(partNumber, nextRegionPosition, length);
+		readPart(openParts.get(0), partNumber, getFilePosition(partNumber, nextRegionPosition), b, off, n, isPartEnd(partNumber, nextRegionPosition, n));
+		nextRegionPosition += n;
+		return n;
 	}
 
-	private void readFully(byte[] b, int off, int len) throws IOException {
-		while (len > 0) {
-			int n = inputStream.read(b, off, len);
-			if (n == -1) {
-				throw new EOFException();
+	/**
+	 * Transfer count bytes of the data from position into out without copying them through the
+	 * heap, stripe unit by stripe unit. The position of this stream does not change.
+	 */
+	public void transferTo(long position, long count, MultipartFileOutputStream out) throws IOException {
+		if(position < 0 || count < 0 || position + count > length()) {
+			throw new IOException("Invalid range " + position + " + " + count);
+		}
+		while(count > 0) {
+			int partNumber = getPartNumber(position);
+			long n = getSegmentLength(partNumber, position, count);
+			try(FileChannel channel = FileChannel.open(partPaths[partNumber], StandardOpenOption.READ)) {
+				out.transferFrom(channel, getFilePosition(partNumber, position), n);
 			}
-			off += n;
-			len -= n;
+			position += n;
+			count -= n;
 		}
 	}
 
+	/**
+	 * Total length of the data in all partitions, without part headers.
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Return number of the partition file that holds the data at position.
+	 */
+	public int getPartNumber(long position) {
+		int n = directories.size();
+		int directory = getStripeDirectory(position);
+		long stripePosition = getStripePosition(position);
+		// parts of the directory are directory, directory + n, ... in order of their offsets
+		int low = 0;
+		int high = (partSize - directory + n - 1) / n - 1;
+		while(low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if(partOffsets[middle * n + directory] <= stripePosition) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		int partNumber = low * n + directory;
+		if(partNumber >= partSize || stripePosition >= partOffsets[partNumber] + partLengths[partNumber]) {
+			return partSize - 1;
+		}
+		return partNumber;
+	}
+
+	/**
+	 * Move to position of the data, counted without part headers. Regions read ahead are dropped,
+	 * and reading starts over from the position with a window of one region.
+	 */
+	public void seek(long position) throws IOException {
+		if(position < 0 || position > length()) {
+			throw new IOException("Invalid position " + position);
+		}
+		for(Future<Region> future : pendingRegions) {
+			future.cancel(false);
+		}
+		pendingRegions.clear();
+		if(currentRegion != null) {
+			bufferPool.release(currentRegion.data);
+			currentRegion = null;
+		}
+		nextRegionPosition = position;
+		window = 1;
+	}
+
+	/**
+	 * Stop the read threads and close the partitions left open.
+	 */
+	@Override public void close() throws IOException {
+		for(Future<Region> future : pendingRegions) {
+			future.cancel(false);
+		}
+		pendingRegions.clear();
+		for(ExecutorService executor : readTaskExecutors) {
+			executor.shutdown();
+		}
+		try {
+			for(ExecutorService executor : readTaskExecutors) {
+				executor.awaitTermination(1, TimeUnit.HOURS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} finally {
+			for(Map<Integer, FileChannel> parts : openParts) {
+				for(FileChannel channel : parts.values()) {
+					channel.close();
+				}
+				parts.clear();
+			}
+		}
+	}
 }
@@ -3,58 +3,330 @@ package stream;
 import model.ByteSignature;
 import util.RWUtil;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 /**
  * This class implements an output stream for distributing data to fixed-size files.
+ * Part sizes are 64-bit, so a part can be larger than 2GB. Data is collected in direct buffers
+ * and written to the part through its FileChannel.
+ *
+ * Parts can be striped over several directories, for example on different devices. The data is cut
+ * into stripe units, which go round-robin to the directories, and the units of every directory are
+ * split into parts of their own. Part j of directory d is numbered j times the number of directories
+ * plus d, so the part numbers of an archive have no gaps. Every directory has its own write thread
+ * and current part, so consecutive units are written to different devices at the same time. The
+ * caller only waits when the buffers of all directories are queued. The stripe unit is at most the
+ * part size limit, and the part of the highest number is renamed to the file name when the stream is
+ * closed. The stripe unit and the directories besides the directory of the file are listed in a
+ * stripe file next to it, where MultipartFileInputStream finds them.
  */
 public class MultipartFileOutputStream extends OutputStream {
+	public static final int DEFAULT_BUFFER_SIZE = 1024*1024;
+	public static final int DEFAULT_STRIPE_UNIT = 1024*1024;
+
+	/*
+	 * Buffers held by the writes queued for every directory.
+	 */
+	private static final int BUFFERS_PER_DIRECTORY = 4;
+
+	private static final int PART_HEADER_LENGTH = 12;
+
 	private String filePath;
-	private Path currentFile;
-	private OutputStream currentOutPutStream;
-	private int partSizeLimit;
-	private int currentPartSize;
-	private int writtenByteSize;
+	private List<Path> directories;
+	private ExecutorService[] writeTaskExecutors;
+	private BlockingQueue<ByteBuffer> freeBuffers;
+	private AtomicReference<IOException> failure = new AtomicReference<>();
+	private long stripeUnit;
+	private Path[] currentFiles;
+	private FileChannel[] currentChannels;
+	private int[] partCounts;
+	private long[] writtenByteSizes;
+	private ByteBuffer writeBuffer;
+	private int bufferDirectory;
+	private FileChannel bufferChannel;
+	private long partSizeLimit;
+	private long position;
+	private boolean closed;
 
 	/**
 	 * Creates a new output stream with the specified compression partSizeLimit
 	 */
-	public MultipartFileOutputStream(String filePath, int partSizeLimit) throws IOException {
+	public MultipartFileOutputStream(String filePath, long partSizeLimit) throws IOException {
+		this(filePath, partSizeLimit, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a new output stream writing to the parts in writes of bufferSize bytes.
+	 */
+	public MultipartFileOutputStream(String filePath, long partSizeLimit, int bufferSize) throws IOException {
+		this(filePath, partSizeLimit, bufferSize, Collections.emptyList());
+	}
+
+	/**
+	 * Creates a new output stream striping the data over the directory of the file and the
+	 * stripe directories in units of DEFAULT_STRIPE_UNIT bytes.
+	 */
+	public MultipartFileOutputStream(String filePath, long partSizeLimit, int bufferSize, List<String> stripeDirectories) throws IOException {
+		this(filePath, partSizeLimit, bufferSize, stripeDirectories, DEFAULT_STRIPE_UNIT);
+	}
+
+	/**
+	 * Creates a new output stream striping the data over the directory of the file and the
+	 * stripe directories in units of stripeUnit bytes, or of the part size limit if it is smaller.
+	 */
+	public MultipartFileOutputStream(String filePath, long partSizeLimit, int bufferSize, List<String> stripeDirectories, long stripeUnit) throws IOException {
 		if(filePath == null || filePath.isEmpty()) {
 			throw new IllegalArgumentException("Invalid file path.");
 		}
 		if(partSizeLimit <= 0) {
 			throw new IllegalArgumentException("Invalid partition size limit." + partSizeLimit);
 		}
+		if(bufferSize < PART_HEADER_LENGTH) {
+			throw new IllegalArgumentException("Invalid buffer size." + bufferSize);
+		}
+		if(stripeDirectories == null) {
+			throw new IllegalArgumentException("stripe directories is null.");
+		}
+		if(stripeUnit <= 0) {
+			throw new IllegalArgumentException("Invalid stripe unit." + stripeUnit);
+		}
 		if(!filePath.endsWith("zip")) {
 			throw new IOException("Invalid file type");
 		}
 		this.filePath = filePath;
 		this.partSizeLimit = partSizeLimit;
-		this.currentPartSize = 1;
-		this.writtenByteSize = 0;
-		openNextPart();
+		this.directories = new ArrayList<>();
+		directories.add(getDirectory(filePath));
+		for(String stripeDirectory : stripeDirectories) {
+			Path directory = Paths.get(stripeDirectory).toAbsolutePath().normalize();
+			if(!directories.contains(directory)) {
+				directories.add(directory);
+			}
+		}
+		// a single directory takes the whole data as one unit
+		this.stripeUnit = directories.size() == 1 ? Long.MAX_VALUE : Math.min(stripeUnit, partSizeLimit);
+		writeStripeFile();
+		this.writeTaskExecutors = new ExecutorService[directories.size()];
+		for(int i=0;i<writeTaskExecutors.length;i++) {
+			writeTaskExecutors[i] = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "youngzip-part-write");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		this.freeBuffers = new ArrayBlockingQueue<>(BUFFERS_PER_DIRECTORY * directories.size());
+		for(int i=0;i<BUFFERS_PER_DIRECTORY * directories.size();i++) {
+			freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+		this.currentFiles = new Path[directories.size()];
+		this.currentChannels = new FileChannel[directories.size()];
+		this.partCounts = new int[directories.size()];
+		this.writtenByteSizes = new long[directories.size()];
+		this.writeBuffer = takeBuffer();
+		this.position = 0;
+		// an empty archive still has its first part
+		openNextPart(0);
+	}
+
+	/**
+	 * Directory of the file, which holds the stripe file.
+	 */
+	static Path getDirectory(String filePath) {
+		Path parent = Paths.get(filePath).toAbsolutePath().normalize().getParent();
+		return parent != null ? parent : Paths.get("").toAbsolutePath();
+	}
+
+	/**
+	 * Path of the stripe file listing the stripe unit and the stripe directories of the file.
+	 */
+	static Path getStripeFile(String filePath) {
+		return Paths.get(filePath.substring(0, filePath.length() - 3) + "stripe");
+	}
+
+	/*
+	 * Write the stripe unit and the stripe directories to the stripe file, or delete the stripe
+	 * file of an earlier archive if parts are not striped. Earlier last parts in the directories are
+	 * deleted, since readers would take them for the last part of this archive.
+	 */
+	private void writeStripeFile() throws IOException {
+		Path stripeFile = getStripeFile(filePath);
+		if(directories.size() == 1) {
+			Files.deleteIfExists(stripeFile);
+			return;
+		}
+		String fileName = Paths.get(filePath).getFileName().toString();
+		for(Path directory : directories) {
+			Files.createDirectories(directory);
+			Files.deleteIfExists(directory.resolve(fileName));
+		}
+		List<String> lines = new ArrayList<>();
+		lines.add(String.valueOf(stripeUnit));
+		lines.addAll(directories.subList(1, directories.size()).stream()
+			.map(Path::toString)
+			.collect(Collectors.toList()));
+		Files.write(stripeFile, lines, StandardCharsets.UTF_8);
 	}
 
 	/**
 	 * Write header of multipart File. Header consisit of signature and partNumber.
 	 */
-	private void writePartHeader() throws IOException {
-		RWUtil.write64(currentOutPutStream, ByteSignature.PART.getValue());
-		RWUtil.write32(currentOutPutStream, currentPartSize -1);
+	private void writePartHeader(int partNumber) throws IOException {
+		byte[] header = new byte[PART_HEADER_LENGTH];
+		RWUtil.put64(header, 0, ByteSignature.PART.getValue());
+		RWUtil.put32(header, 8, partNumber);
+		writeBuffer.put(header);
 	}
 
 	/**
-	 * Open next part file and write part header.
+	 * Queue closing the current part of the directory, open its next part and write the part
+	 * header. A part of the same number left in another directory by an earlier archive is deleted.
+	 */
+	private void openNextPart(int directory) throws IOException {
+		submitBuffer();
+		if(currentChannels[directory] != null) {
+			submit(directory, currentChannels[directory]::close);
+		}
+		int partNumber = partCounts[directory] * directories.size() + directory;
+		String partName = Paths.get(getPartPath(partNumber)).getFileName().toString();
+		for(int i=0;i<directories.size();i++) {
+			if(i != directory) {
+				Files.deleteIfExists(directories.get(i).resolve(partName));
+			}
+		}
+		currentFiles[directory] = directories.get(directory).resolve(partName);
+		currentChannels[directory] = FileChannel.open(currentFiles[directory], StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		partCounts[directory]++;
+		writtenByteSizes[directory] = 0;
+		bufferDirectory = directory;
+		bufferChannel = currentChannels[directory];
+		writePartHeader(partNumber);
+	}
+
+	private String getPartPath(int partNumber) {
+		return filePath.substring(0,filePath.length()-2) + partNumber;
+	}
+
+	/*
+	 * Directory of the stripe unit holding the data at position.
+	 */
+	private int getStripeDirectory(long position) {
+		return (int)(position / stripeUnit % directories.size());
+	}
+
+	/*
+	 * Make the current part of the directory of position the part taking the next bytes, opening
+	 * its next part if it is full. Return the number of bytes it takes before the stripe unit or
+	 * the part ends.
+	 */
+	private long nextSegment() throws IOException {
+		int directory = getStripeDirectory(position);
+		if(currentChannels[directory] == null || writtenByteSizes[directory] == partSizeLimit) {
+			openNextPart(directory);
+		} else if(bufferChannel != currentChannels[directory]) {
+			submitBuffer();
+			bufferDirectory = directory;
+			bufferChannel = currentChannels[directory];
+		}
+		return Math.min(stripeUnit - position % stripeUnit, partSizeLimit - writtenByteSizes[directory]);
+	}
+
+	private interface PartOperation {
+		void run() throws IOException;
+	}
+
+	/*
+	 * Run the operation in the write thread of the directory, unless a write thread has failed.
 	 */
-	private void openNextPart() throws IOException {
-		currentFile = Paths.get(filePath);
-		currentOutPutStream = Files.newOutputStream(currentFile);
-		writePartHeader();
+	private Future<?> submit(int directory, PartOperation operation) throws IOException {
+		checkFailure();
+		return writeTaskExecutors[directory].submit(() -> {
+			try {
+				if(failure.get() == null) {
+					operation.run();
+				}
+			} catch (IOException e) {
+				failure.compareAndSet(null, e);
+			}
+		});
+	}
+
+	/*
+	 * Queue writing current buffer to its part, and continue with a free buffer.
+	 */
+	private void submitBuffer() throws IOException {
+		if(writeBuffer.position() == 0) {
+			return;
+		}
+		ByteBuffer buffer = writeBuffer;
+		FileChannel channel = bufferChannel;
+		writeBuffer = takeBuffer();
+		buffer.flip();
+		try {
+			submit(bufferDirectory, () -> {
+				try {
+					while(buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				} finally {
+					buffer.clear();
+					freeBuffers.add(buffer);
+				}
+			});
+		} catch (IOException e) {
+			buffer.clear();
+			freeBuffers.add(buffer);
+			throw e;
+		}
+	}
+
+	private ByteBuffer takeBuffer() throws IOException {
+		try {
+			return freeBuffers.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure.get();
+		if(e != null) {
+			throw e;
+		}
+	}
+
+	private static void await(Future<?> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
 	}
 
 	private byte[] singleByteBuffer = new byte[1];
@@ -67,26 +339,112 @@ public class MultipartFileOutputStream extends OutputStream {
 	}
 
 	/**
-	 * Writes an array of bytes to the current part file.
-	 * If byte length plus byte written to current part is bigger than partSizeLimit,
-	 * change to new part file and start writing to the new part file.
+	 * Writes an array of bytes to the current parts. A buffer holds bytes of one stripe unit and
+	 * part, and is queued to the write thread of its directory when it is full or the next bytes
+	 * go to another part, so a single write can span any number of units and parts.
 	 */
 	@Override public void write(byte[] b, int offset, int length) throws IOException {
-		if(writtenByteSize + length > partSizeLimit) {
-			currentOutPutStream.write(b, offset, partSizeLimit - writtenByteSize);
-			currentOutPutStream.close();
-			Files.move(currentFile, Paths.get(filePath.substring(0,filePath.length()-2) + (currentPartSize -1)));
-			currentPartSize++;
-			openNextPart();
-			currentOutPutStream.write(b, offset + (partSizeLimit - writtenByteSize), length - (partSizeLimit - writtenByteSize));
-			writtenByteSize = length - (partSizeLimit - writtenByteSize);
-		} else {
-			currentOutPutStream.write(b, offset, length);
-			writtenByteSize += length;
+		while(length > 0) {
+			long segment = nextSegment();
+			if(!writeBuffer.hasRemaining()) {
+				submitBuffer();
+			}
+			int n = (int)Math.min(Math.min(length, writeBuffer.remaining()), segment);
+			writeBuffer.put(b, offset, n);
+			offset += n;
+			length -= n;
+			position += n;
+			writtenByteSizes[bufferDirectory] += n;
+		}
+	}
+
+	/**
+	 * Transfers count bytes of the source file from position into the part files without
+	 * copying them through the heap. Stripe units and parts change like in write, and the
+	 * transfers to different directories run concurrently. Returns after the bytes are
+	 * transferred, so the source can be closed.
+	 */
+	public void transferFrom(FileChannel source, long sourcePosition, long count) throws IOException {
+		List<Future<?>> transfers = new ArrayList<>();
+		try {
+			while(count > 0) {
+				long length = Math.min(count, nextSegment());
+				submitBuffer();
+				long transferPosition = sourcePosition;
+				FileChannel channel = bufferChannel;
+				transfers.add(submit(bufferDirectory, () -> {
+					for(long transferred = 0; transferred < length;) {
+						long n = source.transferTo(transferPosition + transferred, length - transferred, channel);
+						if(n <= 0) {
+							throw new EOFException("source file ended before " + (length - transferred) + " bytes");
+						}
+						transferred += n;
+					}
+				}));
+				sourcePosition += length;
+				count -= length;
+				position += length;
+				writtenByteSizes[bufferDirectory] += length;
+			}
+		} finally {
+			for(Future<?> transfer : transfers) {
+				await(transfer);
+			}
 		}
+		checkFailure();
 	}
 
+	/**
+	 * Write buffered data to the parts and wait until it is written.
+	 */
+	@Override public void flush() throws IOException {
+		submitBuffer();
+		List<Future<?>> barriers = new ArrayList<>(writeTaskExecutors.length);
+		for(ExecutorService executor : writeTaskExecutors) {
+			barriers.add(executor.submit(() -> {}));
+		}
+		for(Future<?> barrier : barriers) {
+			await(barrier);
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Close the current parts, wait until every part is written and rename the part of the highest
+	 * number to the file name.
+	 */
 	@Override public void close() throws IOException {
-		currentOutPutStream.close();
+		if(closed) {
+			return;
+		}
+		closed = true;
+		try {
+			submitBuffer();
+			int lastDirectory = 0;
+			for(int i=0;i<directories.size();i++) {
+				if(currentChannels[i] != null) {
+					submit(i, currentChannels[i]::close);
+					if(partCounts[i] >= partCounts[lastDirectory]) {
+						lastDirectory = i;
+					}
+				}
+			}
+			Path lastFile = currentFiles[lastDirectory];
+			Path target = directories.get(lastDirectory).resolve(Paths.get(filePath).getFileName());
+			submit(lastDirectory, () -> Files.move(lastFile, target, StandardCopyOption.REPLACE_EXISTING));
+		} finally {
+			for(ExecutorService executor : writeTaskExecutors) {
+				executor.shutdown();
+			}
+			try {
+				for(ExecutorService executor : writeTaskExecutors) {
+					executor.awaitTermination(1, TimeUnit.HOURS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(e.getMessage());
+			}
+		}
+		checkFailure();
 	}
 }
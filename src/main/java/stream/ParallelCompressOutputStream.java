@@ -1,169 +1,794 @@
 package stream;
 
+import compression.CompressionLoad;
 import compression.CompressionStrategy;
 import compression.DeflaterCompressionStrategy;
+import compression.IncompressibleDataDetector;
 import model.ByteSignature;
+import model.Codec;
 import model.FileEntry;
+import model.IndexEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import util.BufferPool;
+import util.ContentDefinedChunker;
+import util.Crc32c;
 import util.RWUtil;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Checksum;
 
 /**
  * This class implements an output stream for compressing file parallelly.
  * Thw whole process is composed of three process, chunking, compressing and writing. They
  * are all run in parallelly in different thread. The compression process itself also run in
  * parallel using multi thread to speed up the compression.
+ * Unless configured otherwise by Builder, compression runs in a thread pool shared by all
+ * streams in the JVM, sized to the number of available processors.
  */
 public class ParallelCompressOutputStream extends OutputStream {
+
+	/**
+	 * Options for creating a ParallelCompressOutputStream.
+	 */
+	public static class Builder {
+		private int chunkSize = 1024*128;
+		private CompressionStrategy compressionStrategy = new DeflaterCompressionStrategy();
+		private long memoryLimit = -1;
+		private int threads = 0;
+		private int queueDepth = 100;
+		private ExecutorService executor = null;
+		private boolean storeIncompressible = true;
+		private boolean solid = false;
+		private boolean contentDefinedChunking = false;
+
+		public Builder chunkSize(int chunkSize) {
+			this.chunkSize = chunkSize;
+			return this;
+		}
+
+		public Builder compressionStrategy(CompressionStrategy compressionStrategy) {
+			this.compressionStrategy = compressionStrategy;
+			return this;
+		}
+
+		/**
+		 * Maximum bytes of chunks and compressed data held in flight. Defaults to 64 chunks.
+		 */
+		public Builder memoryLimit(long memoryLimit) {
+			this.memoryLimit = memoryLimit;
+			return this;
+		}
+
+		/**
+		 * Compress in a thread pool of given size owned by the stream, instead of the shared pool.
+		 */
+		public Builder threads(int threads) {
+			if(threads <= 0) {
+				throw new IllegalArgumentException("Invalid number of threads." + threads);
+			}
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 * Number of chunks waiting for compression in the thread pool owned by the stream.
+		 * Writing blocks while the queue is full.
+		 */
+		public Builder queueDepth(int queueDepth) {
+			if(queueDepth <= 0) {
+				throw new IllegalArgumentException("Invalid queue depth." + queueDepth);
+			}
+			this.queueDepth = queueDepth;
+			return this;
+		}
+
+		/**
+		 * Compress in the given executor. The executor is not shut down by the stream.
+		 */
+		public Builder executor(ExecutorService executor) {
+			if(executor == null) {
+				throw new IllegalArgumentException("executor is null.");
+			}
+			this.executor = executor;
+			return this;
+		}
+
+		/**
+		 * Store blocks uncompressed when they are detected as incompressible or compression does
+		 * not make them smaller. Enabled by default.
+		 */
+		public Builder storeIncompressible(boolean storeIncompressible) {
+			this.storeIncompressible = storeIncompressible;
+			return this;
+		}
+
+		/**
+		 * Pack consecutive small entries into shared blocks of up to chunk size, instead of
+		 * writing a block for every entry. Disabled by default.
+		 */
+		public Builder solid(boolean solid) {
+			this.solid = solid;
+			return this;
+		}
+
+		/**
+		 * Cut the content of an entry into blocks at boundaries found by a rolling hash of the content,
+		 * instead of every chunk size bytes. Blocks hold a quarter to all of the chunk size and half of
+		 * it on average, and the same content is cut into the same blocks even when data is inserted in
+		 * front of it. Disabled by default.
+		 */
+		public Builder contentDefinedChunking(boolean contentDefinedChunking) {
+			this.contentDefinedChunking = contentDefinedChunking;
+			return this;
+		}
+
+		public ParallelCompressOutputStream build(OutputStream out) {
+			return new ParallelCompressOutputStream(out, this);
+		}
+	}
+
+	/*
+	 * Lazily created thread pool shared by streams that do not configure their own.
+	 */
+	private static class SharedExecutorHolder {
+		private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(),
+			runnable -> {
+				Thread thread = new Thread(runnable, "youngzip-compress");
+				thread.setDaemon(true);
+				return thread;
+			});
+	}
+
+	/*
+	 * Blocks the submitting thread until the queue of the executor has room.
+	 */
+	private static final RejectedExecutionHandler BLOCKING_POLICY = (runnable, executor) -> {
+		if(executor.isShutdown()) {
+			throw new RejectedExecutionException("executor is shut down");
+		}
+		try {
+			executor.getQueue().put(runnable);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException(e);
+		}
+	};
+
+	/**
+	 * Compressed or stored data of a block. Only the first length bytes of data belong to the block.
+	 * Checksum is CRC32C of the data written in the frame.
+	 */
 	private static class CompressedData {
 		private long seqNum;
+		private int originalLength;
 		private byte[] data;
+		private int length;
+		private boolean stored;
+		private long checksum;
 
-		public CompressedData(long seqNum, byte[] data) {
+		public CompressedData(long seqNum, int originalLength, byte[] data, int length, boolean stored, long checksum) {
 			this.seqNum = seqNum;
+			this.originalLength = originalLength;
 			this.data = data;
+			this.length = length;
+			this.stored = stored;
+			this.checksum = checksum;
 		}
 
 		public long getSeqNum() {
 			return seqNum;
 		}
 
+		public int getOriginalLength() {
+			return originalLength;
+		}
+
 		public byte[] getData() {
 			return data;
 		}
+
+		public int getLength() {
+			return length;
+		}
+
+		public boolean isStored() {
+			return stored;
+		}
+
+		public long getChecksum() {
+			return checksum;
+		}
 	}
 
 	/**
-	 * A task that compress the given data and put it into queue.
+	 * Holds compressed data completed out of order, and hands them to the writer in order of
+	 * sequence number. The writer is signalled as soon as the next block in sequence arrives, or
+	 * when a block failed, since its sequence number will never arrive.
 	 */
-	private static class CompressTask implements Callable<Boolean> {
-		private static Logger logger = LoggerFactory.getLogger(CompressTask.class);
+	private static class ReorderBuffer {
+		private final Lock lock = new ReentrantLock();
+		private final Condition nextBlockReady = lock.newCondition();
+		private final Map<Long, CompressedData> completedData = new HashMap<>();
+		private long nextSeqNum = 0;
+		private long endSeqNum = Long.MAX_VALUE;
+		private Throwable failure;
 
+		public void put(CompressedData compressedData) {
+			lock.lock();
+			try {
+				completedData.put(compressedData.getSeqNum(), compressedData);
+				if(compressedData.getSeqNum() == nextSeqNum) {
+					nextBlockReady.signal();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Mark that no block with sequence number endSeqNum or above will be put.
+		 */
+		public void close(long endSeqNum) {
+			lock.lock();
+			try {
+				this.endSeqNum = endSeqNum;
+				nextBlockReady.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Mark that a block failed, and wake up the writer. The first failure is kept.
+		 */
+		public void fail(Throwable cause) {
+			lock.lock();
+			try {
+				if(failure == null) {
+					failure = cause;
+				}
+				nextBlockReady.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Failure of a block, or null if no block failed.
+		 */
+		public Throwable getFailure() {
+			lock.lock();
+			try {
+				return failure;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Number of compressed blocks waiting to be taken.
+		 */
+		public int size() {
+			lock.lock();
+			try {
+				return completedData.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Wait for the next block in sequence and return it. Return null after the last block.
+		 * Throws once a block failed.
+		 */
+		public CompressedData take() throws InterruptedException, IOException {
+			lock.lock();
+			try {
+				CompressedData compressedData;
+				while((compressedData = completedData.remove(nextSeqNum)) == null) {
+					if(failure != null) {
+						throw new IOException("failed to compress block " + nextSeqNum, failure);
+					}
+					if(nextSeqNum >= endSeqNum) {
+						return null;
+					}
+					nextBlockReady.await();
+				}
+				nextSeqNum++;
+				return compressedData;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Limits the bytes held by the pipeline, from raw chunks waiting for compression to
+	 * compressed blocks waiting in the reorder buffer. The chunking thread blocks in acquire
+	 * until the write thread releases enough bytes. A chunk is always admitted when nothing
+	 * else is in flight, so chunks larger than the limit can not deadlock the pipeline.
+	 */
+	private static class MemoryBudget {
+		private final Lock lock = new ReentrantLock();
+		private final Condition bytesReleased = lock.newCondition();
+		private final long limit;
+		private long inFlightBytes = 0;
+		private long peakInFlightBytes = 0;
+		private boolean aborted = false;
+
+		public MemoryBudget(long limit) {
+			this.limit = limit;
+		}
+
+		public void acquire(long bytes) throws IOException {
+			lock.lock();
+			try {
+				while(!aborted && inFlightBytes > 0 && inFlightBytes + bytes > limit) {
+					bytesReleased.await();
+				}
+				if(aborted) {
+					throw new IOException("write thread stopped");
+				}
+				add(bytes);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(e.getMessage());
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Change the bytes held without blocking. Used when a chunk is replaced by its compressed data.
+		 */
+		public void adjust(long bytes) {
+			lock.lock();
+			try {
+				add(bytes);
+				if(bytes < 0) {
+					bytesReleased.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public void release(long bytes) {
+			adjust(-bytes);
+		}
+
+		/**
+		 * Wake up and fail the chunking thread, because nothing will be released anymore.
+		 */
+		public void abort() {
+			lock.lock();
+			try {
+				aborted = true;
+				bytesReleased.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public long getInFlightBytes() {
+			lock.lock();
+			try {
+				return inFlightBytes;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public long getPeakInFlightBytes() {
+			lock.lock();
+			try {
+				return peakInFlightBytes;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void add(long bytes) {
+			inFlightBytes += bytes;
+			peakInFlightBytes = Math.max(peakInFlightBytes, inFlightBytes);
+		}
+	}
+
+	/**
+	 * Sequence numbers of the blocks that belong to a file entry, and checksum of its content.
+	 */
+	private static class EntryBlocks {
+		private FileEntry fileEntry;
+		private long firstSeqNum;
+		private int blockCount;
+		private long checksum;
+
+		public EntryBlocks(FileEntry fileEntry, long firstSeqNum) {
+			this.fileEntry = fileEntry;
+			this.firstSeqNum = firstSeqNum;
+		}
+	}
+
+	/**
+	 * Chunk buffer backed by an array of the buffer pool. When a block is submitted, the array is
+	 * handed over to the compress task and the buffer continues with another array of the pool,
+	 * so the content is never copied.
+	 */
+	private static class ChunkBuffer extends ByteArrayOutputStream {
+		private BufferPool bufferPool;
+
+		public ChunkBuffer(BufferPool bufferPool) {
+			super(0);
+			this.bufferPool = bufferPool;
+			this.buf = bufferPool.acquire();
+		}
+
+		/**
+		 * Return the array holding the content, and reset the buffer with a new array of the pool.
+		 */
+		public byte[] detach() {
+			byte[] data = buf;
+			buf = bufferPool.acquire();
+			count = 0;
+			return data;
+		}
+	}
+
+	/**
+	 * A task that compress the given data and put it into reorder buffer. The bytes
+	 * held for the chunk are exchanged for the bytes of compressed data.
+	 * If storeIncompressible is set, the chunk is kept uncompressed when it looks incompressible,
+	 * or when compressed data is not smaller than the chunk.
+	 * Data is compressed into an array of the buffer pool, and the array of the chunk is returned
+	 * to the pool unless the chunk is stored. Checksum of the block is computed here, in parallel.
+	 * A failure is recorded in the reorder buffer and aborts the memory budget, so neither the
+	 * writer nor the chunking thread waits for the block forever.
+	 */
+	private static class CompressTask implements Callable<Boolean> {
 		private long seqNumber;
 		private byte[] chunk;
+		private int length;
 		private CompressionStrategy compressionStrategy;
-		private BlockingQueue<CompressedData> compressedDataQueue;
+		private boolean storeIncompressible;
+		private ReorderBuffer reorderBuffer;
+		private MemoryBudget memoryBudget;
+		private BufferPool bufferPool;
 
-		public CompressTask(long num, byte[] chunk, CompressionStrategy compressionStrategy, BlockingQueue<CompressedData> comprssedDataQueue) {
+		public CompressTask(long num, byte[] chunk, int length, CompressionStrategy compressionStrategy, boolean storeIncompressible, ReorderBuffer reorderBuffer, MemoryBudget memoryBudget, BufferPool bufferPool) {
 			this.seqNumber = num;
 			this.chunk = chunk;
+			this.length = length;
 			this.compressionStrategy = compressionStrategy;
-			this.compressedDataQueue = comprssedDataQueue;
+			this.storeIncompressible = storeIncompressible;
+			this.reorderBuffer = reorderBuffer;
+			this.memoryBudget = memoryBudget;
+			this.bufferPool = bufferPool;
 		}
 
 		@Override public Boolean call() {
 			try {
-				compressedDataQueue.put(new CompressedData(seqNumber, compressionStrategy.compress(chunk)));
-			} catch (InterruptedException e) {
-				logger.error(e.getMessage(), e);
-				return false;
+				compress();
+			} catch (Throwable e) {
+				reorderBuffer.fail(e);
+				memoryBudget.abort();
+				throw e;
 			}
 			return true;
 		}
+
+		private void compress() {
+			if(storeIncompressible && IncompressibleDataDetector.isIncompressible(chunk, 0, length)) {
+				putStored();
+				return;
+			}
+			byte[] compressed = bufferPool.acquire();
+			int compressedLength = compressionStrategy.compress(chunk, 0, length, compressed);
+			if(storeIncompressible && (compressedLength < 0 || compressedLength >= length)) {
+				bufferPool.release(compressed);
+				putStored();
+				return;
+			}
+			if(compressedLength < 0) {
+				bufferPool.release(compressed);
+				compressed = compressionStrategy.compress(Arrays.copyOf(chunk, length));
+				compressedLength = compressed.length;
+			}
+			bufferPool.release(chunk);
+			memoryBudget.adjust(compressedLength - length);
+			reorderBuffer.put(new CompressedData(seqNumber, length, compressed, compressedLength, false, Crc32c.value(compressed, 0, compressedLength)));
+		}
+
+		private void putStored() {
+			reorderBuffer.put(new CompressedData(seqNumber, length, chunk, length, true, Crc32c.value(chunk, 0, length)));
+		}
 	}
 
 	/**
 	 * A task that write compressed data to output file. Consumes compressed data
-	 * from PriorityBlockingQueue in order of sequnce number. This task should be run
-	 * only in single thread.
+	 * from ReorderBuffer in order of sequnce number. This task should be run
+	 * only in single thread. Writes archive header before the first block, frame header
+	 * before every block, and central directory and end trailer after the last block.
+	 * Offset of every block is recorded to build the central directory. Arrays of written blocks
+	 * are returned to the buffer pool.
 	 */
 	private static class WriteTask implements Callable<Boolean> {
 		private static Logger logger = LoggerFactory.getLogger(WriteTask.class);
 
 		private OutputStream out;
-		private AtomicBoolean dataSubmitFinished;
+		private Codec codec;
 		private long seqNumber;
-		private PriorityBlockingQueue<CompressedData> compressedDataQueue;
+		private ReorderBuffer reorderBuffer;
+		private List<EntryBlocks> entryBlocksList;
+		private MemoryBudget memoryBudget;
+		private AtomicLong writeStallTime;
+		private long position;
+		private long[] blockOffsets;
+		private BufferPool bufferPool;
 
-		public WriteTask(OutputStream out, AtomicBoolean dataSubmitFinished, PriorityBlockingQueue<CompressedData> compressedDataQueue) {
-			this.dataSubmitFinished = dataSubmitFinished;
+		public WriteTask(OutputStream out, Codec codec, ReorderBuffer reorderBuffer, MemoryBudget memoryBudget, List<EntryBlocks> entryBlocksList, AtomicLong writeStallTime, BufferPool bufferPool) {
 			this.seqNumber = 0;
 			this.out = out;
-			this.compressedDataQueue = compressedDataQueue;
+			this.codec = codec;
+			this.reorderBuffer = reorderBuffer;
+			this.memoryBudget = memoryBudget;
+			this.entryBlocksList = entryBlocksList;
+			this.writeStallTime = writeStallTime;
+			this.position = 0;
+			this.blockOffsets = new long[1024];
+			this.bufferPool = bufferPool;
 		}
 
 		@Override public Boolean call() {
-			while(!dataSubmitFinished.get() || !compressedDataQueue.isEmpty()) {
-				try {
-					CompressedData compressedData = compressedDataQueue.peek();
-					if(compressedData != null && compressedData.getSeqNum() == seqNumber) {
-						compressedDataQueue.take();
-						out.write(compressedData.getData());
-						seqNumber++;
-					} else {
-						Thread.sleep(100);
+			try {
+				ArchiveFormat.writeArchiveHeader(out, codec);
+				position += ArchiveFormat.ARCHIVE_HEADER_LENGTH;
+				while(true) {
+					long waitStart = System.nanoTime();
+					CompressedData compressedData = reorderBuffer.take();
+					writeStallTime.addAndGet(System.nanoTime() - waitStart);
+					if(compressedData == null) {
+						break;
 					}
-				} catch (IOException ex) {
-					logger.error(ex.getMessage(), ex);
-					return false;
-				} catch (InterruptedException e) {
-					logger.error(e.getMessage(), e);
-					return false;
+					recordBlockOffset();
+					ArchiveFormat.writeBlockFrame(
+						out,
+						compressedData.isStored() ? ByteSignature.STORED : ByteSignature.BLOCK,
+						compressedData.getOriginalLength(),
+						compressedData.getData(),
+						compressedData.getLength(),
+						compressedData.getChecksum()
+					);
+					position += ArchiveFormat.FRAME_HEADER_LENGTH + compressedData.getLength();
+					memoryBudget.release(compressedData.getLength() + BLOCK_OVERHEAD);
+					bufferPool.release(compressedData.getData());
+					seqNumber++;
 				}
+				recordBlockOffset();
+				long directoryOffset = position;
+				ArchiveFormat.writeDirectory(out, buildDirectory());
+				ArchiveFormat.writeTrailer(out, directoryOffset);
+			} catch (IOException ex) {
+				logger.error(ex.getMessage(), ex);
+				memoryBudget.abort();
+				return false;
+			} catch (InterruptedException e) {
+				logger.error(e.getMessage(), e);
+				memoryBudget.abort();
+				return false;
 			}
 			return true;
 		}
+
+		private void recordBlockOffset() {
+			if(seqNumber == blockOffsets.length) {
+				blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+			}
+			blockOffsets[(int)seqNumber] = position;
+		}
+
+		/*
+		 * Build central directory from the blocks of each entry. Must be called after all blocks are written.
+		 */
+		private List<IndexEntry> buildDirectory() {
+			List<IndexEntry> indexEntries = new ArrayList<>(entryBlocksList.size());
+			for(EntryBlocks entryBlocks : entryBlocksList) {
+				int first = (int)entryBlocks.firstSeqNum;
+				indexEntries.add(new IndexEntry(
+					entryBlocks.fileEntry,
+					blockOffsets[first],
+					entryBlocks.blockCount,
+					blockOffsets[first + entryBlocks.blockCount] - blockOffsets[first],
+					entryBlocks.checksum
+				));
+			}
+			return indexEntries;
+		}
 	}
 
+	/**
+	 * Load of the pipeline reported to the compression strategy: blocks submitted but not started
+	 * by a compression thread, and compressed blocks not yet taken by the write thread.
+	 */
+	private static class PipelineLoad implements CompressionLoad {
+		private int threads;
+		private AtomicInteger queuedBlocks;
+		private ReorderBuffer reorderBuffer;
+
+		public PipelineLoad(int threads, AtomicInteger queuedBlocks, ReorderBuffer reorderBuffer) {
+			this.threads = threads;
+			this.queuedBlocks = queuedBlocks;
+			this.reorderBuffer = reorderBuffer;
+		}
+
+		@Override public int getThreads() {
+			return threads;
+		}
+
+		@Override public int getQueuedBlocks() {
+			return queuedBlocks.get();
+		}
+
+		@Override public int getUnwrittenBlocks() {
+			return reorderBuffer.size();
+		}
+	}
+
+	/*
+	 * Number of threads of the executor compressing the blocks of the stream.
+	 */
+	private static int compressThreads(Builder builder) {
+		if(builder.executor instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor)builder.executor).getMaximumPoolSize();
+		} else if(builder.executor == null && builder.threads > 0) {
+			return builder.threads;
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/*
+	 * Bytes accounted for every block in flight besides its data, for task and buffer bookkeeping.
+	 */
+	private static final int BLOCK_OVERHEAD = 256;
+
+	/*
+	 * Room in pooled arrays besides chunk size, for file headers and data that grows when compressed.
+	 */
+	private static final int BUFFER_SLACK = 1024*2;
+
 	private OutputStream out;
 	private int chunkSize;
 	private CompressionStrategy compressionStrategy;
+	private boolean storeIncompressible;
 	private ExecutorService compressTaskExecutor;
+	private boolean ownsCompressTaskExecutor;
 	private ExecutorService writeTaskExecutor;
-	private AtomicBoolean dataSubmitFinished;
-	private PriorityBlockingQueue<CompressedData> compressedDataQueue;
+	private Future<Boolean> writeResult;
+	private ReorderBuffer reorderBuffer;
+	private MemoryBudget memoryBudget;
+	private AtomicLong writeStallTime;
+	private AtomicInteger queuedBlocks;
 	private long seqNumber;
+	private List<EntryBlocks> entryBlocksList;
 
 	private FileEntry currentFile;
-	private ByteArrayOutputStream chunkBuffer;
+	private EntryBlocks currentEntryBlocks;
+	private BufferPool bufferPool;
+	private ChunkBuffer chunkBuffer;
+	private ContentDefinedChunker chunker;
+	private int entryHeaderLength;
+	private boolean solid;
+	private ChunkBuffer solidBuffer;
+	private Checksum entryChecksum;
+	private boolean currentReference;
 
 	public ParallelCompressOutputStream(OutputStream out) {
-		this(out, 1024*128, new DeflaterCompressionStrategy());
+		this(out, builder());
 	}
 
 	public ParallelCompressOutputStream(OutputStream out, CompressionStrategy compressionStrategy) {
-		this(out, 1024*128, compressionStrategy);
+		this(out, builder().compressionStrategy(compressionStrategy));
+	}
+
+	public ParallelCompressOutputStream(OutputStream out, int chunkSize, CompressionStrategy compressionStrategy) {
+		this(out, builder().chunkSize(chunkSize).compressionStrategy(compressionStrategy));
+	}
+
+	public ParallelCompressOutputStream(OutputStream out, int chunkSize, CompressionStrategy compressionStrategy, long memoryLimit) {
+		this(out, builder().chunkSize(chunkSize).compressionStrategy(compressionStrategy).memoryLimit(memoryLimit));
 	}
 
 	/**
-	 * Creates a new stream. Start writeTask thread.
+	 * Creates a new stream. Start writeTask thread. At most memoryLimit bytes of chunks and
+	 * compressed data are held in flight, and writing blocks until the write thread catches up.
+	 * Chunks and compressed data are held in arrays of a buffer pool sized to the memory limit,
+	 * so no array is allocated per block once the pool is warmed up.
 	 */
-	public ParallelCompressOutputStream(OutputStream out, int chunkSize, CompressionStrategy compressionStrategy) {
-		if(out == null || compressionStrategy == null) {
+	private ParallelCompressOutputStream(OutputStream out, Builder builder) {
+		long memoryLimit = builder.memoryLimit < 0 ? 64L * builder.chunkSize : builder.memoryLimit;
+		if(out == null || builder.compressionStrategy == null) {
 			throw new IllegalArgumentException();
 		}
-		if(chunkSize <= 1024) {
+		if(builder.chunkSize <= 1024) {
 			throw new IllegalArgumentException("chunk size is too small");
 		}
+		if(builder.chunkSize > ArchiveFormat.MAX_CHUNK_SIZE) {
+			throw new IllegalArgumentException("chunk size is too large");
+		}
+		if(memoryLimit < builder.chunkSize) {
+			throw new IllegalArgumentException("memory limit is smaller than chunk size");
+		}
 		this.out = out;
-		this.chunkSize = chunkSize;
-		this.compressionStrategy = compressionStrategy;
+		this.chunkSize = builder.chunkSize;
+		this.compressionStrategy = builder.compressionStrategy;
+		this.storeIncompressible = builder.storeIncompressible;
+		this.solid = builder.solid;
 
-		this.compressTaskExecutor = new ThreadPoolExecutor(
-			4, 4, 30,
-			TimeUnit.SECONDS, new ArrayBlockingQueue<>(100),
-			new ThreadPoolExecutor.CallerRunsPolicy());
+		if(builder.executor != null) {
+			this.compressTaskExecutor = builder.executor;
+			this.ownsCompressTaskExecutor = false;
+		} else if(builder.threads > 0) {
+			this.compressTaskExecutor = new ThreadPoolExecutor(
+				builder.threads, builder.threads, 30,
+				TimeUnit.SECONDS, new ArrayBlockingQueue<>(builder.queueDepth),
+				BLOCKING_POLICY);
+			this.ownsCompressTaskExecutor = true;
+		} else {
+			this.compressTaskExecutor = SharedExecutorHolder.EXECUTOR;
+			this.ownsCompressTaskExecutor = false;
+		}
 		this.writeTaskExecutor = Executors.newSingleThreadExecutor();
-		this.dataSubmitFinished = new AtomicBoolean();
-		this.compressedDataQueue = new PriorityBlockingQueue<>(100, Comparator.comparingLong(CompressedData::getSeqNum));
+		this.reorderBuffer = new ReorderBuffer();
+		this.memoryBudget = new MemoryBudget(memoryLimit);
+		this.writeStallTime = new AtomicLong();
+		this.queuedBlocks = new AtomicInteger();
 		this.seqNumber = 0;
+		this.entryBlocksList = new ArrayList<>();
 
 		this.currentFile = null;
-		this.chunkBuffer = new ByteArrayOutputStream(chunkSize + 1024);
+		this.bufferPool = new BufferPool(
+			chunkSize + chunkSize / 128 + BUFFER_SLACK,
+			(int)Math.min(memoryLimit / chunkSize + 4, 1024)
+		);
+		this.chunkBuffer = new ChunkBuffer(bufferPool);
+		this.chunker = builder.contentDefinedChunking
+			? new ContentDefinedChunker(chunkSize / 4, Integer.highestOneBit(chunkSize / 2), chunkSize)
+			: null;
+		this.solidBuffer = solid ? new ChunkBuffer(bufferPool) : null;
+		this.entryChecksum = Crc32c.create();
+		compressionStrategy.setLoad(new PipelineLoad(compressThreads(builder), queuedBlocks, reorderBuffer));
 
-		writeTaskExecutor.submit(
-			new WriteTask(out, dataSubmitFinished, compressedDataQueue)
+		this.writeResult = writeTaskExecutor.submit(
+			new WriteTask(out, compressionStrategy.getCodec(), reorderBuffer, memoryBudget, entryBlocksList, writeStallTime, bufferPool)
 		);
 	}
 
+	public static Builder builder() {
+		return new Builder();
+	}
+
 	/**
 	 * Begins writing a new compressed file entry. Write file header information to chunk buffer.
 	 */
@@ -171,64 +796,242 @@ public class ParallelCompressOutputStream extends OutputStream {
 		if(fileEntry == null) {
 			throw new IllegalArgumentException("fileEntry is empty");
 		}
-		writeFileHeader(fileEntry);
+		writeFileHeader(ByteSignature.FILE, fileEntry);
+		entryHeaderLength = chunkBuffer.size();
+		currentFile = fileEntry;
+		currentReference = false;
+		if(chunker != null) {
+			chunker.reset();
+		}
+		currentEntryBlocks = new EntryBlocks(fileEntry, -1);
+		entryChecksum.reset();
+	}
+
+	/**
+	 * Writes a file entry with the same content as the earlier entry named target, without its data.
+	 * Readers take the content from the target. checksum is CRC32C of the content, recorded in the
+	 * central directory. The entry is closed when this returns.
+	 */
+	public void putReference(FileEntry fileEntry, String target, long checksum) throws IOException {
+		if(fileEntry == null || target == null) {
+			throw new IllegalArgumentException("fileEntry or target is empty");
+		}
+		if(fileEntry.getType() != FileEntry.FileType.FILE) {
+			throw new IllegalArgumentException("can't write reference of " + fileEntry.getType());
+		}
+		writeFileHeader(ByteSignature.REFERENCE, fileEntry);
+		byte[] targetName = target.getBytes(StandardCharsets.UTF_8);
+		RWUtil.write32(chunkBuffer, targetName.length);
+		chunkBuffer.write(targetName);
+		entryHeaderLength = chunkBuffer.size();
 		currentFile = fileEntry;
+		currentReference = true;
+		currentEntryBlocks = new EntryBlocks(fileEntry, -1);
+		currentEntryBlocks.checksum = checksum;
+		closeEntry();
 	}
 
 	/**
 	 * Stops compressing and writing current file. If file is directory or some data still remain
 	 * in chunk buffer, compress and write the data. Reset the chunk buffer for additional file.
+	 * In solid mode, an entry that fits in one chunk is packed into the solid buffer instead.
 	 */
-	public void closeEntry() {
+	public void closeEntry() throws IOException {
 		if(currentFile == null) {
 			throw new IllegalStateException("Put file entry into the stream before close.");
 		}
-		if(currentFile.getType() == FileEntry.FileType.DIRECTORY) {
-			compressTaskExecutor.submit(
-				new CompressTask(seqNumber++, chunkBuffer.toByteArray(), compressionStrategy, compressedDataQueue)
-			);
-		} else if(chunkBuffer.size() > 8) {
-			compressTaskExecutor.submit(
-				new CompressTask(seqNumber++, chunkBuffer.toByteArray(), compressionStrategy, compressedDataQueue)
-			);
+		if(!currentReference) {
+			currentEntryBlocks.checksum = entryChecksum.getValue();
+		}
+		if(solid && isSolidMember()) {
+			addToSolidBuffer();
+		} else {
+			if(currentFile.getType() == FileEntry.FileType.DIRECTORY) {
+				submitChunk();
+			} else if(chunkBuffer.size() > 8) {
+				submitChunk();
+			}
+			currentEntryBlocks.blockCount = (int)(seqNumber - currentEntryBlocks.firstSeqNum);
 		}
 		chunkBuffer.reset();
+		entryBlocksList.add(currentEntryBlocks);
 		currentFile = null;
+		currentEntryBlocks = null;
 	}
 
 	private void halt() {
-		compressTaskExecutor.shutdownNow();
+		if(ownsCompressTaskExecutor) {
+			compressTaskExecutor.shutdownNow();
+		}
 		writeTaskExecutor.shutdownNow();
 	}
 	/**
-	 * Finalize compressing. Compress and write the final trailer and wait for compression and write
-	 * thread to terminate. Must be called after writing all content.
+	 * Finalize compressing. Wait for write thread to terminate, which happens after every block
+	 * has been compressed and written. Write thread writes the final trailer after the last block.
+	 * Must be called after writing all content.
 	 */
 	public void finish() throws InterruptedException, IOException, NoSuchAlgorithmException {
 		if(currentFile != null) {
 			throw new IllegalStateException("current file entry is not closed.");
 		}
 		chunkBuffer.reset();
-		writeFinalTrailer();
-		compressTaskExecutor.submit(
-			new CompressTask(seqNumber++, chunkBuffer.toByteArray(), compressionStrategy, compressedDataQueue)
-		);
-		compressTaskExecutor.shutdown();
-		if(!compressTaskExecutor.awaitTermination(1, TimeUnit.HOURS)) {
-			halt();
-			throw new IOException();
-		}
-		dataSubmitFinished.set(true);
+		flushSolidBuffer();
+		reorderBuffer.close(seqNumber);
 		writeTaskExecutor.shutdown();
 		if(!writeTaskExecutor.awaitTermination(1, TimeUnit.HOURS)) {
 			halt();
 			throw new IOException();
 		}
+		if(ownsCompressTaskExecutor) {
+			compressTaskExecutor.shutdown();
+		}
+		checkFailure();
+		try {
+			if(!writeResult.get()) {
+				throw new IOException("failed to write compressed data");
+			}
+		} catch (ExecutionException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Bytes of chunks and compressed data currently held by the stream.
+	 */
+	public long getInFlightBytes() {
+		return memoryBudget.getInFlightBytes();
+	}
+
+	/**
+	 * Highest number of bytes of chunks and compressed data held by the stream at once.
+	 */
+	public long getPeakInFlightBytes() {
+		return memoryBudget.getPeakInFlightBytes();
+	}
+
+	/**
+	 * Total time in nanoseconds the write thread has spent waiting for the next block in sequence.
+	 */
+	public long getWriteStallTime() {
+		return writeStallTime.get();
 	}
 
+	/**
+	 * Close the output. Throws the failure of a block, so the failure is not lost when the
+	 * stream is closed without finishing it.
+	 */
 	public void close() throws IOException {
 		out.close();
 		chunkBuffer.close();
+		if(reorderBuffer.getFailure() != null) {
+			halt();
+			checkFailure();
+		}
+	}
+
+	/*
+	 * Throw the failure of a compress task, if a block failed.
+	 */
+	private void checkFailure() throws IOException {
+		Throwable failure = reorderBuffer.getFailure();
+		if(failure != null) {
+			throw new IOException("failed to compress block: " + failure, failure);
+		}
+	}
+
+	/*
+	 * Acquire bytes of the memory budget, throwing the failure of a compress task if the budget
+	 * was aborted because of it.
+	 */
+	private void acquire(long bytes) throws IOException {
+		checkFailure();
+		try {
+			memoryBudget.acquire(bytes);
+		} catch (IOException e) {
+			checkFailure();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes length bytes of b from offset as stored data of current file, without compressing
+	 * them. Every chunk is copied into an array of the buffer pool, checksummed, and written by the
+	 * write thread as STORED frame from the same array.
+	 */
+	public void store(byte[] b, int offset, int length) throws IOException {
+		startStoredChunks();
+		while(length > 0) {
+			int n = Math.min(length, chunkSize);
+			acquire(8 + n + BLOCK_OVERHEAD);
+			byte[] data = bufferPool.acquire();
+			System.arraycopy(b, offset, data, 8, n);
+			putStoredChunk(data, n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Writes count bytes of the file from position as stored data of current file, without
+	 * compressing them. Every chunk of the region is read once into an array of the buffer pool,
+	 * checksummed, and written by the write thread as STORED frame from the same array. The data
+	 * passes through the heap; FileChannel.transferTo is not used, because it would read the
+	 * file a second time for the checksums.
+	 */
+	public void storeFrom(Path file, long position, long count) throws IOException {
+		startStoredChunks();
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while(count > 0) {
+				int length = (int)Math.min(count, chunkSize);
+				acquire(8 + length + BLOCK_OVERHEAD);
+				byte[] data = bufferPool.acquire();
+				for(int read = 0; read < length;) {
+					int n = channel.read(ByteBuffer.wrap(data, 8 + read, length - read), position + read);
+					if(n <= 0) {
+						bufferPool.release(data);
+						memoryBudget.release(8 + length + BLOCK_OVERHEAD);
+						throw new EOFException("file ended before " + (length - read) + " bytes");
+					}
+					read += n;
+				}
+				putStoredChunk(data, length);
+				position += length;
+				count -= length;
+			}
+		}
+	}
+
+	/*
+	 * Check that current entry takes data, and submit the data buffered for it, so stored chunks
+	 * follow it in order.
+	 */
+	private void startStoredChunks() throws IOException {
+		if(currentFile == null) {
+			throw new IllegalStateException("no file entry to write");
+		}
+		if(currentFile.getType() == FileEntry.FileType.DIRECTORY || currentFile.getType() == FileEntry.FileType.DELETED) {
+			throw new IllegalStateException("can't write to " + currentFile.getType());
+		}
+		if(currentEntryBlocks.firstSeqNum < 0 || chunkBuffer.size() > 8) {
+			submitChunk();
+			writeChunkHeader();
+		}
+	}
+
+	/*
+	 * Hand a chunk of length bytes at offset 8 of the array to the write thread as STORED frame.
+	 */
+	private void putStoredChunk(byte[] data, int length) {
+		RWUtil.put64(data, 0, ByteSignature.CHUNK.getValue());
+		entryChecksum.update(data, 8, length);
+		reorderBuffer.put(new CompressedData(seqNumber++, 8 + length, data, 8 + length, true, Crc32c.value(data, 0, 8 + length)));
+	}
+
+	/**
+	 * Whether blocks that can not be compressed are stored uncompressed.
+	 */
+	public boolean isStoreIncompressible() {
+		return storeIncompressible;
 	}
 
 	@Override public void write(int b) throws IOException {
@@ -243,31 +1046,107 @@ public class ParallelCompressOutputStream extends OutputStream {
 		if(currentFile == null) {
 			throw new IllegalStateException("no file entry to write");
 		}
-		if(currentFile.getType() == FileEntry.FileType.DIRECTORY) {
-			throw new IllegalStateException("can't write to directory");
+		if(currentFile.getType() == FileEntry.FileType.DIRECTORY || currentFile.getType() == FileEntry.FileType.DELETED) {
+			throw new IllegalStateException("can't write to " + currentFile.getType());
 		}
 
-		chunkBuffer.write(b, offset, length);
-		if(chunkBuffer.size() >= chunkSize) {
-			compressTaskExecutor.submit(
-				new CompressTask(seqNumber++, chunkBuffer.toByteArray(), compressionStrategy, compressedDataQueue)
-			);
-			chunkBuffer.reset();
-			writeChunkHeader();
+		entryChecksum.update(b, offset, length);
+		while(length > 0) {
+			int n = Math.max(0, Math.min(length, chunkSize - chunkBuffer.size()));
+			int boundary = chunker != null ? chunker.findBoundary(b, offset, n) : -1;
+			if(boundary >= 0) {
+				n = boundary;
+			}
+			chunkBuffer.write(b, offset, n);
+			offset += n;
+			length -= n;
+			if(boundary >= 0 || chunkBuffer.size() >= chunkSize) {
+				submitChunk();
+				writeChunkHeader();
+				if(chunker != null) {
+					chunker.reset();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Submit content of chunk buffer for compression as the next block of current entry.
+	 * Packed entries in front of it are submitted first, so blocks stay in order of entries.
+	 */
+	private void submitChunk() throws IOException {
+		flushSolidBuffer();
+		if(currentEntryBlocks.firstSeqNum < 0) {
+			currentEntryBlocks.firstSeqNum = seqNumber;
+		}
+		submitBlock(chunkBuffer);
+	}
+
+	/*
+	 * Submit content of the buffer for compression and reset the buffer. Blocks while the bytes
+	 * in flight exceed the memory limit.
+	 */
+	private void submitBlock(ChunkBuffer buffer) throws IOException {
+		int length = buffer.size();
+		acquire(length + BLOCK_OVERHEAD);
+		CompressTask task = new CompressTask(seqNumber++, buffer.detach(), length, compressionStrategy, storeIncompressible, reorderBuffer, memoryBudget, bufferPool);
+		queuedBlocks.incrementAndGet();
+		compressTaskExecutor.submit(() -> {
+			queuedBlocks.decrementAndGet();
+			return task.call();
+		});
+	}
+
+	/*
+	 * Return whether current entry can be packed into a solid block. The whole entry must be
+	 * in the chunk buffer, and the size in its header must match its data, because readers
+	 * split solid blocks by the size. Directories and references have no data.
+	 */
+	private boolean isSolidMember() {
+		long expectedLength = currentFile.getType() == FileEntry.FileType.DIRECTORY || currentReference ? 0 : currentFile.getSize();
+		return currentEntryBlocks.firstSeqNum < 0 && chunkBuffer.size() - entryHeaderLength == expectedLength;
+	}
+
+	/*
+	 * Append current entry to the solid buffer, submitting the buffer first if the entry does
+	 * not fit in the chunk size. The first entry of a solid block owns the block in the central
+	 * directory, later entries have no block of their own.
+	 */
+	private void addToSolidBuffer() throws IOException {
+		if(solidBuffer.size() + chunkBuffer.size() > chunkSize) {
+			flushSolidBuffer();
+		}
+		currentEntryBlocks.firstSeqNum = seqNumber;
+		if(solidBuffer.size() == 0) {
+			RWUtil.write64(solidBuffer, ByteSignature.SOLID.getValue());
+			currentEntryBlocks.blockCount = 1;
+		} else {
+			currentEntryBlocks.blockCount = 0;
+		}
+		chunkBuffer.writeTo(solidBuffer);
+	}
+
+	/*
+	 * Submit packed entries as a solid block.
+	 */
+	private void flushSolidBuffer() throws IOException {
+		if(solidBuffer != null && solidBuffer.size() > 0) {
+			submitBlock(solidBuffer);
 		}
 	}
 
 	/*
 	 * Write file header to chunk buffer. File header indicates that current
-	 * compressed block is beginning of new file.
+	 * compressed block is beginning of new file. signature is FILE, or REFERENCE
+	 * for the header of a reference entry.
 	 */
-	private void writeFileHeader(FileEntry fileEntry) throws IOException {
+	private void writeFileHeader(ByteSignature signature, FileEntry fileEntry) throws IOException {
 		byte[] name = fileEntry.getName().getBytes("utf-8");
-		RWUtil.write64(chunkBuffer, ByteSignature.FILE.getValue());
+		RWUtil.write64(chunkBuffer, signature.getValue());
 		RWUtil.write32(chunkBuffer, name.length);
 		chunkBuffer.write(name);
-		if(fileEntry.getType() == FileEntry.FileType.DIRECTORY) {
-			RWUtil.write16(chunkBuffer, FileEntry.FileType.DIRECTORY.getValue());
+		if(fileEntry.getType() == FileEntry.FileType.DIRECTORY || fileEntry.getType() == FileEntry.FileType.DELETED) {
+			RWUtil.write16(chunkBuffer, fileEntry.getType().getValue());
 		} else {
 			RWUtil.write16(chunkBuffer, FileEntry.FileType.FILE.getValue());
 		}
@@ -281,12 +1160,4 @@ public class ParallelCompressOutputStream extends OutputStream {
 	private void writeChunkHeader() throws IOException {
 		RWUtil.write64(chunkBuffer, ByteSignature.CHUNK.getValue());
 	}
-
-	/*
-	 * Write file header to chunk buffer. End header indicates end of compressed file.
-	 */
-	private void writeFinalTrailer() throws IOException, NoSuchAlgorithmException {
-		RWUtil.write64(chunkBuffer, ByteSignature.END.getValue());
-		RWUtil.writePadding(chunkBuffer, 1024);
-	}
 }
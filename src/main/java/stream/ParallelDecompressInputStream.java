@@ -0,0 +1,152 @@
+package stream;
+
+import decompression.DecompressionStrategy;
+import decompression.InflaterDecompressionStrategy;
+import model.ByteSignature;
+import util.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+
+/**
+ * This class implements an input stream for decompressing file generated by ParallelCompressOutputStream
+ * parallelly. Compressed blocks are read ahead using their frame headers and decompressed in multiple
+ * threads, then handed back in order of sequence. Legacy archives have no frame headers, so they are
+ * decompressed in the calling thread.
+ */
+public class ParallelDecompressInputStream extends DecompressInputStream {
+
+	/*
+	 * Size of pooled arrays, which hold frames and blocks written with the default chunk size.
+	 */
+	private static final int BLOCK_BUFFER_SIZE = 1024*128 + 1024*4;
+
+	/**
+	 * Reads frames ahead in the calling thread and submits them to decompression threads.
+	 * Frames are checked against their checksums and decompressed in the decompression threads.
+	 * Decompressed blocks are returned in the order they were read. Frames and decompressed
+	 * blocks of default chunk size are held in arrays of a buffer pool, and reused once the
+	 * blocks are released.
+	 */
+	private static class ParallelBlockSource implements BlockSource {
+		private InputStream in;
+		private int version;
+		private DecompressionStrategy decompressionStrategy;
+		private ExecutorService decompressTaskExecutor;
+		private Deque<Future<Block>> pendingBlocks;
+		private int readAhead;
+		private boolean inputFinished;
+		private BufferPool bufferPool;
+
+		ParallelBlockSource(InputStream in, int version, DecompressionStrategy decompressionStrategy, int threads) {
+			this.in = in;
+			this.version = version;
+			this.decompressionStrategy = decompressionStrategy;
+			this.decompressTaskExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "youngzip-decompress");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.pendingBlocks = new ArrayDeque<>();
+			this.readAhead = threads * 4;
+			this.inputFinished = false;
+			this.bufferPool = new BufferPool(BLOCK_BUFFER_SIZE, readAhead * 2 + 2);
+		}
+
+		@Override public Block nextBlock() throws IOException, DataFormatException {
+			fillReadAhead();
+			Future<Block> block = pendingBlocks.poll();
+			if(block == null) {
+				return null;
+			}
+			try {
+				return block.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e.getMessage(), e);
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof DataFormatException) {
+					throw (DataFormatException)e.getCause();
+				}
+				throw new IOException(e.getCause().getMessage(), e.getCause());
+			}
+		}
+
+		/*
+		 * Read frames until read ahead window is full or the last block is reached.
+		 */
+		private void fillReadAhead() throws IOException {
+			while(!inputFinished && pendingBlocks.size() < readAhead) {
+				ArchiveFormat.Frame frame = ArchiveFormat.readFrame(in, bufferPool, version);
+				if(!ArchiveFormat.isBlockFrame(frame)) {
+					inputFinished = true;
+					decompressTaskExecutor.shutdown();
+					break;
+				}
+				pendingBlocks.add(decompressTaskExecutor.submit(() -> decompress(frame)));
+			}
+		}
+
+		/*
+		 * Check the frame and decompress it into an array of the pool, then return the array of the
+		 * frame to the pool. Data of STORED frame is the block itself.
+		 */
+		private Block decompress(ArchiveFormat.Frame frame) throws IOException, DataFormatException {
+			ArchiveFormat.checkFrame(frame);
+			if(frame.getSignature() == ByteSignature.STORED) {
+				return new Block(frame.getData(), frame.getLength());
+			}
+			int originalLength = frame.getOriginalLength();
+			byte[] data = originalLength <= bufferPool.getBufferSize() ? bufferPool.acquire() : new byte[originalLength];
+			decompressionStrategy.decompress(frame.getData(), frame.getLength(), data, originalLength);
+			bufferPool.release(frame.getData());
+			return new Block(data, originalLength);
+		}
+
+		@Override public void release(Block block) {
+			if(block != null) {
+				bufferPool.release(block.getData());
+			}
+		}
+
+		@Override public void close() throws IOException {
+			decompressTaskExecutor.shutdownNow();
+			in.close();
+		}
+	}
+
+	public ParallelDecompressInputStream(InputStream in) throws IOException, DataFormatException {
+		this(in, new InflaterDecompressionStrategy());
+	}
+
+	public ParallelDecompressInputStream(InputStream in, DecompressionStrategy decompressionStrategy) throws IOException, DataFormatException {
+		this(in, decompressionStrategy, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new stream decompressing blocks with given number of threads.
+	 */
+	public ParallelDecompressInputStream(InputStream in, DecompressionStrategy decompressionStrategy, int threads) throws IOException, DataFormatException {
+		super(openBlockSource(in, decompressionStrategy, threads));
+	}
+
+	private static BlockSource openBlockSource(InputStream in, DecompressionStrategy decompressionStrategy, int threads) throws IOException {
+		if(threads <= 0) {
+			throw new IllegalArgumentException("Invalid number of threads." + threads);
+		}
+		PushbackInputStream pin = openArchive(in, decompressionStrategy);
+		ArchiveFormat.Header header = ArchiveFormat.readArchiveHeader(pin);
+		if(header.getVersion() == ArchiveFormat.LEGACY_VERSION) {
+			return new SerialBlockSource(pin, header, decompressionStrategy);
+		}
+		return new ParallelBlockSource(pin, header.getVersion(), selectStrategy(header, decompressionStrategy), threads);
+	}
+}
@@ -0,0 +1,101 @@
+package stream;
+
+import decompression.DecompressionStrategy;
+import model.FileEntry;
+import model.IndexEntry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+/**
+ * This class reads the central directory of a multipart archive, and decompresses single entries
+ * by seeking directly to their first block instead of decompressing everything in front of them.
+ */
+public class RandomAccessArchive implements Closeable {
+	private MultipartFileInputStream in;
+	private ArchiveFormat.Header header;
+	private List<IndexEntry> indexEntries;
+
+	/**
+	 * Opens the archive and reads its central directory. Throws IOException if the archive
+	 * was written by a version without central directory.
+	 */
+	public RandomAccessArchive(String filePath) throws IOException {
+		this.in = new MultipartFileInputStream(filePath);
+		PushbackInputStream pin = new PushbackInputStream(in, ArchiveFormat.ARCHIVE_HEADER_LENGTH);
+		this.header = ArchiveFormat.readArchiveHeader(pin);
+		if(header.getVersion() < ArchiveFormat.INDEXED_VERSION) {
+			in.close();
+			throw new IOException("archive has no central directory");
+		}
+		in.seek(in.length() - ArchiveFormat.TRAILER_LENGTH);
+		long directoryOffset = ArchiveFormat.readTrailer(in);
+		in.seek(directoryOffset);
+		this.indexEntries = Collections.unmodifiableList(ArchiveFormat.readDirectory(ArchiveFormat.readFrame(in, header.getVersion()), header.getVersion()));
+	}
+
+	/**
+	 * Get all entries of the archive in the order they were compressed.
+	 */
+	public List<IndexEntry> getEntries() {
+		return indexEntries;
+	}
+
+	/**
+	 * Find entry by its name. Return null if the archive does not contain the entry.
+	 * Merged archives may hold several entries of the same name, and the last one is returned.
+	 */
+	public IndexEntry getEntry(String name) {
+		return findEntry(name, indexEntries.size());
+	}
+
+	/*
+	 * Find the last entry of the name in front of the end index.
+	 */
+	private IndexEntry findEntry(String name, int end) {
+		for(int i=end-1;i>=0;i--) {
+			if(indexEntries.get(i).getFileEntry().getName().equals(name)) {
+				return indexEntries.get(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Seek to the first block of the entry and return a stream starting at the entry.
+	 * getNextEntry of the returned stream returns the entry. Entries packed in front of it
+	 * in a solid block are skipped. Only one returned stream can be read at a time.
+	 * If the entry is a reference, the returned stream starts at the entry holding its content,
+	 * so getNextEntry returns that entry instead.
+	 */
+	public DecompressInputStream openEntry(IndexEntry indexEntry, DecompressionStrategy decompressionStrategy) throws IOException, DataFormatException {
+		if(indexEntry == null) {
+			throw new IllegalArgumentException("indexEntry is null.");
+		}
+		in.seek(indexEntry.getOffset());
+		PushbackInputStream pin = DecompressInputStream.openArchive(in, decompressionStrategy);
+		DecompressInputStream dis = new DecompressInputStream(new DecompressInputStream.SerialBlockSource(pin, header, decompressionStrategy));
+		FileEntry fileEntry;
+		while((fileEntry = dis.getNextEntry()) != null && !fileEntry.getName().equals(indexEntry.getFileEntry().getName())) {
+			dis.closeEntry();
+		}
+		if(dis.getReference() != null) {
+			// the content is in the last entry of the name written before the reference
+			int index = indexEntries.indexOf(indexEntry);
+			IndexEntry target = findEntry(dis.getReference(), index < 0 ? indexEntries.size() : index);
+			if(target == null) {
+				throw new IOException("entry " + dis.getReference() + " referred by " + indexEntry.getFileEntry().getName() + " not found");
+			}
+			return openEntry(target, decompressionStrategy);
+		}
+		return dis;
+	}
+
+	@Override public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,46 @@
+package util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of byte arrays of a fixed size. Released buffers are reused by later acquires instead of
+ * being allocated again. At most maxPooled free buffers are kept, the rest are left to the garbage
+ * collector. Safe to use from multiple threads.
+ */
+public class BufferPool {
+	private int bufferSize;
+	private BlockingQueue<byte[]> freeBuffers;
+
+	public BufferPool(int bufferSize, int maxPooled) {
+		if(bufferSize <= 0) {
+			throw new IllegalArgumentException("Invalid buffer size." + bufferSize);
+		}
+		if(maxPooled <= 0) {
+			throw new IllegalArgumentException("Invalid number of pooled buffers." + maxPooled);
+		}
+		this.bufferSize = bufferSize;
+		this.freeBuffers = new ArrayBlockingQueue<>(maxPooled);
+	}
+
+	/**
+	 * Return a free buffer, or a new one if no buffer is free. Contents of the buffer are undefined.
+	 */
+	public byte[] acquire() {
+		byte[] buffer = freeBuffers.poll();
+		return buffer != null ? buffer : new byte[bufferSize];
+	}
+
+	/**
+	 * Return the buffer to the pool. Buffers of another size are ignored.
+	 */
+	public void release(byte[] buffer) {
+		if(buffer != null && buffer.length == bufferSize) {
+			freeBuffers.offer(buffer);
+		}
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
@@ -0,0 +1,103 @@
+package util;
+
+/**
+ * Finds chunk boundaries by the content of the data, with the Gear rolling hash of FastCDC.
+ * A boundary is placed after a byte where the hash of the bytes before it matches a mask, so
+ * boundaries move with the content when bytes are inserted or removed in front of them, instead
+ * of shifting every following chunk. Chunks are at least minSize and at most maxSize bytes long.
+ * Below averageSize a mask of more bits is matched than above it, which concentrates chunk sizes
+ * around averageSize. The first minSize bytes of a chunk are not hashed.
+ *
+ * The Gear table is generated from a fixed seed, so the same content is cut at the same boundaries
+ * by every run.
+ */
+public class ContentDefinedChunker {
+	private static final long[] GEAR = buildGear();
+
+	private final int minSize;
+	private final int averageSize;
+	private final int maxSize;
+	private final long smallMask;
+	private final long largeMask;
+	private int size;
+	private long hash;
+
+	/**
+	 * Creates a chunker for chunks of minSize to maxSize bytes. averageSize must be a power of two.
+	 */
+	public ContentDefinedChunker(int minSize, int averageSize, int maxSize) {
+		if(minSize <= 0 || averageSize < minSize || maxSize < averageSize) {
+			throw new IllegalArgumentException("Invalid chunk sizes." + minSize + "/" + averageSize + "/" + maxSize);
+		}
+		if(Integer.bitCount(averageSize) != 1) {
+			throw new IllegalArgumentException("Average chunk size is not a power of two." + averageSize);
+		}
+		int bits = Integer.numberOfTrailingZeros(averageSize);
+		this.minSize = minSize;
+		this.averageSize = averageSize;
+		this.maxSize = maxSize;
+		this.smallMask = mask(bits + 1);
+		this.largeMask = mask(Math.max(bits - 1, 1));
+	}
+
+	/**
+	 * Start a new chunk.
+	 */
+	public void reset() {
+		size = 0;
+		hash = 0;
+	}
+
+	/**
+	 * Consume bytes of current chunk from offset up to its boundary. Return the number of bytes
+	 * up to and including the last byte of the chunk, or -1 if the chunk continues after length
+	 * bytes. The chunker is reset after a boundary is found.
+	 */
+	public int findBoundary(byte[] b, int offset, int length) {
+		int end = offset + length;
+		int i = offset;
+		// skip to the minimum size without hashing
+		if(size < minSize) {
+			int skip = Math.min(minSize - size, length);
+			i += skip;
+			size += skip;
+		}
+		for(;i<end;i++) {
+			hash = (hash << 1) + GEAR[b[i] & 0xff];
+			size++;
+			if((hash & (size <= averageSize ? smallMask : largeMask)) == 0 || size >= maxSize) {
+				reset();
+				return i + 1 - offset;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Mask of the given number of bits, spread over the high half of the hash. A high bit of the
+	 * hash depends on more of the last bytes than a low bit, since every byte shifts the hash left.
+	 */
+	private static long mask(int bits) {
+		long mask = 0;
+		for(int i=0;i<bits;i++) {
+			mask |= 1L << (63 - i * 32 / bits);
+		}
+		return mask;
+	}
+
+	/*
+	 * Random values for every byte, from SplitMix64 with a fixed seed.
+	 */
+	private static long[] buildGear() {
+		long[] gear = new long[256];
+		long state = 0x9e3779b97f4a7c15L;
+		for(int i=0;i<gear.length;i++) {
+			state += 0x9e3779b97f4a7c15L;
+			long z = state;
+			z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+			z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+			gear[i] = z ^ (z >>> 31);
+		}
+		return gear;
+	}
+}
@@ -0,0 +1,96 @@
+package util;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C (Castagnoli) checksum. create returns java.util.zip.CRC32C on JDK 9 and later, which is
+ * computed with the hardware instruction, and this table driven implementation on Java 8.
+ * Both produce the same values, so archives are verified the same way on every JDK.
+ */
+public final class Crc32c implements Checksum {
+	private static final int POLYNOMIAL = 0x82f63b78;
+	private static final int[][] TABLES = buildTables();
+	private static final Class<?> PLATFORM_CLASS = findPlatformClass();
+	private static final ThreadLocal<Checksum> threadLocalChecksum = ThreadLocal.withInitial(Crc32c::create);
+
+	private int crc = 0xffffffff;
+
+	/**
+	 * Create a new checksum, using the implementation of the platform if there is one.
+	 */
+	public static Checksum create() {
+		if(PLATFORM_CLASS != null) {
+			try {
+				return (Checksum)PLATFORM_CLASS.newInstance();
+			} catch (InstantiationException | IllegalAccessException e) {
+				return new Crc32c();
+			}
+		}
+		return new Crc32c();
+	}
+
+	/**
+	 * Return CRC32C of len bytes of b from off.
+	 */
+	public static long value(byte[] b, int off, int len) {
+		Checksum checksum = threadLocalChecksum.get();
+		checksum.reset();
+		checksum.update(b, off, len);
+		return checksum.getValue();
+	}
+
+	@Override public void update(int b) {
+		crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xff];
+	}
+
+	/**
+	 * Update with eight bytes at a time using eight tables, then byte by byte.
+	 */
+	@Override public void update(byte[] b, int off, int len) {
+		int c = crc;
+		int end = off + len;
+		while(end - off >= 8) {
+			int lo = c ^ ((b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24);
+			c = TABLES[7][lo & 0xff] ^ TABLES[6][(lo >>> 8) & 0xff] ^ TABLES[5][(lo >>> 16) & 0xff] ^ TABLES[4][lo >>> 24]
+				^ TABLES[3][b[off + 4] & 0xff] ^ TABLES[2][b[off + 5] & 0xff] ^ TABLES[1][b[off + 6] & 0xff] ^ TABLES[0][b[off + 7] & 0xff];
+			off += 8;
+		}
+		while(off < end) {
+			c = (c >>> 8) ^ TABLES[0][(c ^ b[off++]) & 0xff];
+		}
+		crc = c;
+	}
+
+	@Override public long getValue() {
+		return ~crc & 0xffffffffL;
+	}
+
+	@Override public void reset() {
+		crc = 0xffffffff;
+	}
+
+	private static int[][] buildTables() {
+		int[][] tables = new int[8][256];
+		for(int i=0;i<256;i++) {
+			int c = i;
+			for(int k=0;k<8;k++) {
+				c = (c & 1) != 0 ? (c >>> 1) ^ POLYNOMIAL : c >>> 1;
+			}
+			tables[0][i] = c;
+		}
+		for(int i=0;i<256;i++) {
+			for(int t=1;t<8;t++) {
+				tables[t][i] = (tables[t - 1][i] >>> 8) ^ tables[0][tables[t - 1][i] & 0xff];
+			}
+		}
+		return tables;
+	}
+
+	private static Class<?> findPlatformClass() {
+		try {
+			return Class.forName("java.util.zip.CRC32C");
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+}
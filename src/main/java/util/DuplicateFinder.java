@@ -0,0 +1,141 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Checksum;
+
+/**
+ * Finds files with the same content as a file seen before, so that they can be written as
+ * references to the earlier file instead of being compressed again.
+ *
+ * Files are grouped by size and then by CRC32C. A file is read for its checksum only when an earlier
+ * file has the same size, so trees without duplicates cost almost nothing. The first file of a size
+ * is checksummed when the second one arrives. Only files of the same size and checksum are compared
+ * byte by byte before they are taken as duplicates, so a lookup does not depend on the number of
+ * files of the same size.
+ */
+public class DuplicateFinder {
+	private static final int BUFFER_SIZE = 1024*64;
+
+	/**
+	 * A file seen before. Checksum is CRC32C of its content, or -1 until it is needed.
+	 */
+	public static class Original {
+		private String name;
+		private Path path;
+		private long checksum;
+
+		Original(String name, Path path, long checksum) {
+			this.name = name;
+			this.path = path;
+			this.checksum = checksum;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getChecksum() {
+			return checksum;
+		}
+	}
+
+	/*
+	 * Key of the first file of a size, whose checksum is not computed yet. CRC32C values are 32-bit.
+	 */
+	private static final long UNKNOWN_CHECKSUM = -1;
+
+	private Map<Long, Map<Long, List<Original>>> originalsBySize = new HashMap<>();
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private byte[] otherBuffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * Return the earlier file with the same content as the file, or null if there is none, in which
+	 * case the file is remembered for later files. content holds the first size bytes of the file if
+	 * it has been read already, otherwise it is null and the file is read from its path when needed.
+	 * Empty files are never duplicates.
+	 */
+	public Original find(String name, Path path, long size, byte[] content) throws IOException {
+		if(size == 0) {
+			return null;
+		}
+		Map<Long, List<Original>> originalsByChecksum = originalsBySize.get(size);
+		if(originalsByChecksum == null) {
+			originalsByChecksum = new HashMap<>();
+			originalsByChecksum.put(UNKNOWN_CHECKSUM, new ArrayList<>(Collections.singletonList(new Original(name, path, UNKNOWN_CHECKSUM))));
+			originalsBySize.put(size, originalsByChecksum);
+			return null;
+		}
+		List<Original> unknown = originalsByChecksum.remove(UNKNOWN_CHECKSUM);
+		if(unknown != null) {
+			for(Original original : unknown) {
+				try {
+					original.checksum = checksum(original.path);
+					originalsByChecksum.computeIfAbsent(original.checksum, key -> new ArrayList<>(1)).add(original);
+				} catch (IOException e) {
+					// the earlier file changed or was deleted since, it can not be compared anymore
+				}
+			}
+		}
+		long checksum = content != null ? Crc32c.value(content, 0, (int)size) : checksum(path);
+		List<Original> originals = originalsByChecksum.computeIfAbsent(checksum, key -> new ArrayList<>(1));
+		for(Original original : originals) {
+			try {
+				if(sameContent(original.path, path, content, size)) {
+					return original;
+				}
+			} catch (IOException e) {
+				// the earlier file changed or was deleted since, it can not be compared anymore
+			}
+		}
+		originals.add(new Original(name, path, checksum));
+		return null;
+	}
+
+	private long checksum(Path path) throws IOException {
+		Checksum checksum = Crc32c.create();
+		try(InputStream in = Files.newInputStream(path, StandardOpenOption.READ)) {
+			int len;
+			while((len = in.read(buffer)) != -1) {
+				checksum.update(buffer, 0, len);
+			}
+		}
+		return checksum.getValue();
+	}
+
+	/*
+	 * Compare the original file with content, or with the other file if content is null.
+	 */
+	private boolean sameContent(Path originalPath, Path path, byte[] content, long size) throws IOException {
+		try(InputStream in = Files.newInputStream(originalPath, StandardOpenOption.READ);
+			InputStream other = content == null ? Files.newInputStream(path, StandardOpenOption.READ) : null) {
+			long position = 0;
+			while(position < size) {
+				int len = in.read(buffer, 0, (int)Math.min(buffer.length, size - position));
+				if(len == -1) {
+					return false;
+				}
+				if(content != null) {
+					for(int i=0;i<len;i++) {
+						if(buffer[i] != content[(int)position + i]) return false;
+					}
+				} else {
+					RWUtil.readFully(other, otherBuffer, 0, len);
+					for(int i=0;i<len;i++) {
+						if(buffer[i] != otherBuffer[i]) return false;
+					}
+				}
+				position += len;
+			}
+			return in.read() == -1;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package util;
+
+import model.FileEntry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * State of a compressed directory tree, written next to the archive. Holds type, size, modification
+ * time and CRC32C of every entry of the tree, including entries that an incremental archive did not
+ * write because they had not changed. The next incremental archive compares the tree against it.
+ *
+ * The manifest is a UTF-8 text file starting with a header line, then one line per entry of
+ * type, size, modification time in milliseconds, checksum and name separated by tabs.
+ */
+public class Manifest {
+	private static final String HEADER = "youngzip manifest 1";
+
+	/**
+	 * An entry of the tree. Modification time and checksum are -1 if they are not known.
+	 */
+	public static class Entry {
+		private String name;
+		private FileEntry.FileType type;
+		private long size;
+		private long modifiedTime;
+		private long checksum;
+
+		public Entry(String name, FileEntry.FileType type, long size, long modifiedTime, long checksum) {
+			this.name = name;
+			this.type = type;
+			this.size = size;
+			this.modifiedTime = modifiedTime;
+			this.checksum = checksum;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public FileEntry.FileType getType() {
+			return type;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getModifiedTime() {
+			return modifiedTime;
+		}
+
+		public long getChecksum() {
+			return checksum;
+		}
+	}
+
+	private Map<String, Entry> entries = new LinkedHashMap<>();
+
+	public Entry get(String name) {
+		return entries.get(name);
+	}
+
+	public void put(Entry entry) {
+		entries.put(entry.getName(), entry);
+	}
+
+	public void remove(String name) {
+		entries.remove(name);
+	}
+
+	/**
+	 * Get all entries in the order they were put.
+	 */
+	public Collection<Entry> getEntries() {
+		return entries.values();
+	}
+
+	public static Manifest read(Path path) throws IOException {
+		Manifest manifest = new Manifest();
+		try(BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			if(!HEADER.equals(reader.readLine())) {
+				throw new IOException("invalid manifest " + path);
+			}
+			String line;
+			while((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 5);
+				if(fields.length != 5) {
+					throw new IOException("invalid manifest line " + line);
+				}
+				manifest.put(new Entry(
+					fields[4],
+					FileEntry.FileType.fromInteger(Integer.parseInt(fields[0])),
+					Long.parseLong(fields[1]),
+					Long.parseLong(fields[2]),
+					Long.parseLong(fields[3])
+				));
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("invalid manifest " + path, e);
+		}
+		return manifest;
+	}
+
+	public void write(Path path) throws IOException {
+		try(BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			for(Entry entry : entries.values()) {
+				writer.write(entry.getType().getValue() + "\t" + entry.getSize() + "\t" + entry.getModifiedTime() + "\t" + entry.getChecksum() + "\t" + entry.getName());
+				writer.newLine();
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads files ahead in multiple threads into pooled buffers, and returns them in the order of the
+ * given list. Files larger than the buffer size are not read ahead, the caller reads them itself.
+ *
+ * Every read thread has at most one file open, and at most readAhead files are held in memory,
+ * so open files and memory are bounded however many files are read.
+ */
+public class ParallelFileReader implements Closeable {
+
+	/**
+	 * Contents of a file. If the file is not loaded, the file was larger than the buffer size
+	 * and has to be read from its path.
+	 */
+	public static class FileData {
+		private Path path;
+		private byte[] buffer;
+		private int length;
+
+		FileData(Path path, byte[] buffer, int length) {
+			this.path = path;
+			this.buffer = buffer;
+			this.length = length;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		public boolean isLoaded() {
+			return buffer != null;
+		}
+
+		public byte[] getBuffer() {
+			return buffer;
+		}
+
+		public int getLength() {
+			return length;
+		}
+	}
+
+	private List<Path> paths;
+	private int nextPathIndex;
+	private BufferPool bufferPool;
+	private ExecutorService readTaskExecutor;
+	private Deque<Future<FileData>> pendingFiles;
+	private int readAhead;
+
+	/**
+	 * Creates a new reader of the files. Files of at most bufferSize bytes are read ahead by
+	 * given number of threads, holding at most readAhead files in memory.
+	 */
+	public ParallelFileReader(List<Path> paths, int threads, int readAhead, int bufferSize) {
+		if(paths == null) {
+			throw new IllegalArgumentException("paths is null.");
+		}
+		if(threads <= 0) {
+			throw new IllegalArgumentException("Invalid number of threads." + threads);
+		}
+		if(readAhead <= 0) {
+			throw new IllegalArgumentException("Invalid read ahead." + readAhead);
+		}
+		this.paths = paths;
+		this.nextPathIndex = 0;
+		this.bufferPool = new BufferPool(bufferSize, readAhead);
+		this.readTaskExecutor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "youngzip-read");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.pendingFiles = new ArrayDeque<>();
+		this.readAhead = readAhead;
+	}
+
+	/**
+	 * Return whether there are files left to read.
+	 */
+	public boolean hasNext() {
+		return !pendingFiles.isEmpty() || nextPathIndex < paths.size();
+	}
+
+	/**
+	 * Wait for the next file in the order of the list and return it. Throws the exception of
+	 * reading the file, in which case later files can still be read.
+	 * Release the returned file after use.
+	 */
+	public FileData next() throws IOException {
+		fillReadAhead();
+		Future<FileData> file = pendingFiles.poll();
+		if(file == null) {
+			throw new IllegalStateException("no more files to read.");
+		}
+		try {
+			return file.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e.getMessage(), e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			fillReadAhead();
+		}
+	}
+
+	/**
+	 * Return the buffer of the file to the pool.
+	 */
+	public void release(FileData fileData) {
+		bufferPool.release(fileData.buffer);
+		fileData.buffer = null;
+	}
+
+	@Override public void close() {
+		readTaskExecutor.shutdownNow();
+	}
+
+	/*
+	 * Submit read tasks until read ahead window is full or every file is submitted.
+	 */
+	private void fillReadAhead() {
+		while(nextPathIndex < paths.size() && pendingFiles.size() < readAhead) {
+			Path path = paths.get(nextPathIndex++);
+			pendingFiles.add(readTaskExecutor.submit(() -> read(path)));
+		}
+	}
+
+	/*
+	 * Read the whole file into a pooled buffer. If the file does not fit into the buffer,
+	 * return it unloaded.
+	 */
+	private FileData read(Path path) throws IOException {
+		if(Files.size(path) > bufferPool.getBufferSize()) {
+			return new FileData(path, null, 0);
+		}
+		byte[] buffer = bufferPool.acquire();
+		try(InputStream in = Files.newInputStream(path)) {
+			int length = 0;
+			int n;
+			while(length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+				length += n;
+			}
+			if(length == buffer.length && in.read() != -1) {
+				bufferPool.release(buffer);
+				return new FileData(path, null, 0);
+			}
+			return new FileData(path, buffer, length);
+		} catch (IOException e) {
+			bufferPool.release(buffer);
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes files in multiple threads, so that the caller producing their content never waits for
+ * file creation or disk writes. Files are written positionally from pooled buffers.
+ *
+ * Every file is assigned to one write thread by its path, so the operations on a file run in the
+ * order they were requested, while different files are created and written concurrently. At most
+ * maxBuffers buffers are held by queued writes, and acquire blocks until one is written.
+ * The first failure of a write thread is thrown by the next call, and later operations are skipped.
+ */
+public class ParallelFileWriter implements Closeable {
+	private ExecutorService[] writeTaskExecutors;
+	private List<Map<Path, FileChannel>> openFiles;
+	private BufferPool bufferPool;
+	private Semaphore freeBuffers;
+	private AtomicReference<IOException> failure = new AtomicReference<>();
+
+	public ParallelFileWriter(int threads, int maxBuffers, int bufferSize) {
+		if(threads <= 0) {
+			throw new IllegalArgumentException("Invalid number of threads." + threads);
+		}
+		if(maxBuffers <= 0) {
+			throw new IllegalArgumentException("Invalid number of buffers." + maxBuffers);
+		}
+		this.writeTaskExecutors = new ExecutorService[threads];
+		this.openFiles = new ArrayList<>(threads);
+		for(int i=0;i<threads;i++) {
+			writeTaskExecutors[i] = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "youngzip-write");
+				thread.setDaemon(true);
+				return thread;
+			});
+			openFiles.add(new HashMap<>());
+		}
+		this.bufferPool = new BufferPool(bufferSize, maxBuffers);
+		this.freeBuffers = new Semaphore(maxBuffers);
+	}
+
+	/**
+	 * Return a buffer for the content of a write, blocking while maxBuffers buffers are queued.
+	 */
+	public byte[] acquire() throws IOException {
+		checkFailure();
+		try {
+			freeBuffers.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+		return bufferPool.acquire();
+	}
+
+	/**
+	 * Return a buffer which is not going to be written.
+	 */
+	public void release(byte[] buffer) {
+		bufferPool.release(buffer);
+		freeBuffers.release();
+	}
+
+	public int getBufferSize() {
+		return bufferPool.getBufferSize();
+	}
+
+	/**
+	 * Create the file and its parent directories. An existing file is truncated, and a directory at
+	 * the path is deleted first. The file grows with its writes, so a partly written file is only
+	 * as long as its content.
+	 */
+	public void createFile(Path path) throws IOException {
+		submit(path, null, files -> {
+			prepare(path);
+			files.put(path, FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+		});
+	}
+
+	/**
+	 * Write length bytes of the buffer at position of the created file. The buffer must be
+	 * acquired from this writer, and is released after it is written.
+	 */
+	public void write(Path path, byte[] buffer, int length, long position) throws IOException {
+		submit(path, buffer, files -> {
+			FileChannel channel = files.get(path);
+			if(channel == null) {
+				throw new IOException("file is not created " + path);
+			}
+			ByteBuffer data = ByteBuffer.wrap(buffer, 0, length);
+			long offset = position;
+			while(data.hasRemaining()) {
+				offset += channel.write(data, offset);
+			}
+		});
+	}
+
+	/**
+	 * Close the created file after its writes.
+	 */
+	public void closeFile(Path path) throws IOException {
+		submit(path, null, files -> {
+			FileChannel channel = files.remove(path);
+			if(channel != null) {
+				channel.close();
+			}
+		});
+	}
+
+	/**
+	 * Copy source to path after the operations on source requested so far. The copy runs in the
+	 * write thread of path, in order with the other operations on path, and waits there for a
+	 * barrier queued to the write thread of source. Barriers are queued before the copies waiting
+	 * for them, so write threads never wait for each other in a cycle.
+	 */
+	public void copyFile(Path source, Path path) throws IOException {
+		Future<?> sourceDone = writeTaskExecutors[indexOf(source)].submit(() -> {});
+		submit(path, null, files -> {
+			awaitBarrier(sourceDone);
+			prepare(path);
+			Files.copy(source, path, StandardCopyOption.REPLACE_EXISTING);
+		});
+	}
+
+	/**
+	 * Wait until every operation requested so far is done. Throw the first failure.
+	 */
+	public void await() throws IOException {
+		List<Future<?>> barriers = new ArrayList<>(writeTaskExecutors.length);
+		for(ExecutorService executor : writeTaskExecutors) {
+			barriers.add(executor.submit(() -> {}));
+		}
+		for(Future<?> barrier : barriers) {
+			awaitBarrier(barrier);
+		}
+		checkFailure();
+	}
+
+	private static void awaitBarrier(Future<?> barrier) throws IOException {
+		try {
+			barrier.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (Exception e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Wait for every operation, stop the write threads and close files left open. Operations queued
+	 * after a failure are skipped.
+	 */
+	@Override public void close() throws IOException {
+		try {
+			await();
+		} finally {
+			for(ExecutorService executor : writeTaskExecutors) {
+				executor.shutdown();
+			}
+			try {
+				for(ExecutorService executor : writeTaskExecutors) {
+					executor.awaitTermination(1, TimeUnit.HOURS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			for(Map<Path, FileChannel> files : openFiles) {
+				for(FileChannel channel : files.values()) {
+					channel.close();
+				}
+			}
+		}
+	}
+
+	private interface WriteOperation {
+		void run(Map<Path, FileChannel> openFiles) throws IOException;
+	}
+
+	/*
+	 * Run the operation in the write thread of the path, unless a write thread has failed.
+	 * The buffer of the operation, if any, is released after it whether it runs or not.
+	 * Open files of a write thread are only accessed in that thread.
+	 */
+	private void submit(Path path, byte[] buffer, WriteOperation operation) throws IOException {
+		try {
+			checkFailure();
+		} catch (IOException e) {
+			if(buffer != null) release(buffer);
+			throw e;
+		}
+		int index = indexOf(path);
+		Map<Path, FileChannel> files = openFiles.get(index);
+		writeTaskExecutors[index].execute(() -> {
+			try {
+				if(failure.get() == null) {
+					operation.run(files);
+				}
+			} catch (IOException e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				if(buffer != null) release(buffer);
+			}
+		});
+	}
+
+	private int indexOf(Path path) {
+		return Math.floorMod(path.hashCode(), writeTaskExecutors.length);
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure.get();
+		if(e != null) {
+			throw e;
+		}
+	}
+
+	/*
+	 * Create parent directories of the path, and delete a directory at the path.
+	 */
+	private static void prepare(Path path) throws IOException {
+		if(Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+			List<Path> tree;
+			try(Stream<Path> walk = Files.walk(path)) {
+				tree = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+			}
+			for(Path child : tree) {
+				Files.delete(child);
+			}
+		}
+		Files.createDirectories(path.getParent());
+	}
+}
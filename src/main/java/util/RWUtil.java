@@ -1,9 +1,9 @@
 package util;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 
 public class RWUtil {
 	/**
@@ -30,6 +30,24 @@ public class RWUtil {
 		return get32(b, off) | (get32(b, off+4) << 32);
 	}
 
+	/**
+	 * Stores 32-bit value into byte array at specified offset in little-endian byte order.
+	 */
+	public static void put32(byte b[], int off, long v) {
+		b[off]   = (byte)(v >>>  0);
+		b[off+1] = (byte)(v >>>  8);
+		b[off+2] = (byte)(v >>> 16);
+		b[off+3] = (byte)(v >>> 24);
+	}
+
+	/**
+	 * Stores 64-bit value into byte array at specified offset in little-endian byte order.
+	 */
+	public static void put64(byte b[], int off, long v) {
+		put32(b, off, v);
+		put32(b, off+4, v >>> 32);
+	}
+
 	/**
 	 * Writes a 8-bit byte to the output stream.
 	 */
@@ -69,9 +87,26 @@ public class RWUtil {
 		out.write((int)((v >>> 56) & 0xff));
 	}
 
-	public static void writePadding(OutputStream out, int size) throws NoSuchAlgorithmException, IOException {
-		byte[] bytes = new byte[size];
-		SecureRandom.getInstanceStrong().nextBytes(bytes);
-		out.write(bytes);
+	/**
+	 * Reads exactly len bytes from the input stream into the byte array.
+	 * Throws EOFException if the stream ends before len bytes are read.
+	 */
+	public static void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = in.read(b, off, len);
+			if (n == -1) {
+				throw new EOFException();
+			}
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes size zero bytes to the output stream. Readers skip padding without looking at it,
+	 * so it needs no random content.
+	 */
+	public static void writePadding(OutputStream out, int size) throws IOException {
+		out.write(new byte[size]);
 	}
 }
@@ -0,0 +1,103 @@
+package CompressionStrategy;
+
+import compression.AdaptiveDeflaterCompressionStrategy;
+import compression.CompressionLoad;
+import compression.DeflaterCompressionStrategy;
+import decompression.InflaterDecompressionStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+public class AdaptiveDeflaterCompressionStrategyTest {
+
+	private static class FixedLoad implements CompressionLoad {
+		private int queuedBlocks;
+		private int unwrittenBlocks;
+
+		FixedLoad(int queuedBlocks, int unwrittenBlocks) {
+			this.queuedBlocks = queuedBlocks;
+			this.unwrittenBlocks = unwrittenBlocks;
+		}
+
+		@Override public int getThreads() {
+			return 2;
+		}
+
+		@Override public int getQueuedBlocks() {
+			return queuedBlocks;
+		}
+
+		@Override public int getUnwrittenBlocks() {
+			return unwrittenBlocks;
+		}
+	}
+
+	private static byte[] text() {
+		Random random = new Random(0);
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < 1024*64) sb.append("line ").append(random.nextInt(10000)).append('\n');
+		return sb.toString().getBytes();
+	}
+
+	private static void compressBlocks(AdaptiveDeflaterCompressionStrategy strategy, byte[] src, int blocks) throws DataFormatException {
+		byte[] compressed = new byte[DeflaterCompressionStrategy.maxCompressedLength(src.length)];
+		byte[] decompressed = new byte[src.length];
+		for(int i=0;i<blocks;i++) {
+			int length = strategy.compress(src, 0, src.length, compressed);
+			new InflaterDecompressionStrategy().decompress(compressed, length, decompressed, src.length);
+			Assert.assertArrayEquals(src, decompressed);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void init_invalid_levels() {
+		new AdaptiveDeflaterCompressionStrategy(6, 3, 0);
+	}
+
+	@Test
+	public void raise_level_when_writer_falls_behind() throws DataFormatException {
+		AdaptiveDeflaterCompressionStrategy strategy = new AdaptiveDeflaterCompressionStrategy(1, 9, 0, 0);
+		strategy.setLoad(new FixedLoad(0, 10));
+		compressBlocks(strategy, text(), 10);
+		Assert.assertEquals(9, strategy.getLevel());
+	}
+
+	@Test
+	public void lower_level_when_compression_falls_behind() throws DataFormatException {
+		AdaptiveDeflaterCompressionStrategy strategy = new AdaptiveDeflaterCompressionStrategy(2, 9, 0, 0);
+		strategy.setLoad(new FixedLoad(10, 0));
+		compressBlocks(strategy, text(), 10);
+		Assert.assertEquals(2, strategy.getLevel());
+	}
+
+	@Test
+	public void hold_level_when_pipeline_is_balanced() throws DataFormatException {
+		AdaptiveDeflaterCompressionStrategy strategy = new AdaptiveDeflaterCompressionStrategy(1, 9, 0, 0);
+		strategy.setLoad(new FixedLoad(1, 2));
+		compressBlocks(strategy, text(), 10);
+		Assert.assertEquals(DeflaterCompressionStrategy.DEFAULT_LEVEL, strategy.getLevel());
+	}
+
+	@Test
+	public void follow_throughput_target() throws DataFormatException {
+		byte[] src = text();
+		AdaptiveDeflaterCompressionStrategy unreachable = new AdaptiveDeflaterCompressionStrategy(1, 9, Long.MAX_VALUE / 2, 0);
+		compressBlocks(unreachable, src, 10);
+		Assert.assertEquals(1, unreachable.getLevel());
+
+		AdaptiveDeflaterCompressionStrategy reachable = new AdaptiveDeflaterCompressionStrategy(1, 9, 1, 0);
+		compressBlocks(reachable, src, 10);
+		Assert.assertEquals(9, reachable.getLevel());
+	}
+
+	@Test
+	public void keep_level_without_load_and_target() throws DataFormatException {
+		AdaptiveDeflaterCompressionStrategy strategy = new AdaptiveDeflaterCompressionStrategy(1, 9, 0, 0);
+		compressBlocks(strategy, text(), 5);
+		Assert.assertEquals(DeflaterCompressionStrategy.DEFAULT_LEVEL, strategy.getLevel());
+		Assert.assertTrue(Arrays.equals(new byte[0], strategy.compress(new byte[0])));
+	}
+}
@@ -1,6 +1,9 @@
 package CompressionStrategy;
 
+import compression.CompressionStrategy;
 import compression.DeflaterCompressionStrategy;
+import compression.Lz4CompressionStrategy;
+import decompression.DecompressionStrategy;
 import decompression.InflaterDecompressionStrategy;
 import org.junit.Assert;
 import org.junit.Test;
@@ -8,6 +11,8 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.zip.DataFormatException;
 
 public class CompressionStrategyTest {
@@ -18,4 +23,33 @@ public class CompressionStrategyTest {
 		byte[] decompressed = new InflaterDecompressionStrategy().decompress(new PushbackInputStream(new ByteArrayInputStream(compressed)));
 		Assert.assertEquals(src, new String(decompressed));
 	}
+
+	@Test
+	public void compress_and_decompress_range_into_given_buffers() throws DataFormatException {
+		byte[] src = new byte[1024*64];
+		for(int i=0;i<src.length;i++) {
+			src[i] = (byte)(i % 97);
+		}
+		for(CompressionStrategy compressionStrategy : Arrays.asList(new DeflaterCompressionStrategy(), new Lz4CompressionStrategy())) {
+			byte[] compressed = new byte[src.length];
+			int compressedLength = compressionStrategy.compress(src, 100, src.length - 200, compressed);
+			Assert.assertTrue(compressedLength > 0);
+
+			byte[] decompressed = new byte[src.length];
+			DecompressionStrategy.forCodec(compressionStrategy.getCodec()).decompress(compressed, compressedLength, decompressed, src.length - 200);
+			Assert.assertArrayEquals(Arrays.copyOfRange(src, 100, src.length - 100), Arrays.copyOf(decompressed, src.length - 200));
+
+			Assert.assertEquals(-1, compressionStrategy.compress(src, 0, src.length, new byte[8]));
+		}
+	}
+
+	@Test
+	public void deflate_and_inflate_random_data() throws IOException, DataFormatException {
+		byte[] src = new byte[1024*1024];
+		new Random(0).nextBytes(src);
+		byte[] compressed = new DeflaterCompressionStrategy().compress(src);
+		Assert.assertTrue(compressed.length <= DeflaterCompressionStrategy.maxCompressedLength(src.length));
+		byte[] decompressed = new InflaterDecompressionStrategy().decompress(new PushbackInputStream(new ByteArrayInputStream(compressed)));
+		Assert.assertArrayEquals(src, decompressed);
+	}
 }
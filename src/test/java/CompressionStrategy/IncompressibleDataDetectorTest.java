@@ -0,0 +1,33 @@
+package CompressionStrategy;
+
+import compression.IncompressibleDataDetector;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+public class IncompressibleDataDetectorTest {
+	@Test
+	public void detect_random_data() {
+		byte[] data = new byte[1024*128];
+		new Random(0).nextBytes(data);
+		Assert.assertTrue(IncompressibleDataDetector.isIncompressible(data));
+	}
+
+	@Test
+	public void detect_text_data() throws IOException {
+		byte[] data = Arrays.copyOf(Files.readAllBytes(Paths.get("src/test/resources/text/text.txt")), 1024*128);
+		Assert.assertFalse(IncompressibleDataDetector.isIncompressible(data));
+	}
+
+	@Test
+	public void detect_small_data() {
+		byte[] data = new byte[1024];
+		new Random(0).nextBytes(data);
+		Assert.assertFalse(IncompressibleDataDetector.isIncompressible(data));
+	}
+}
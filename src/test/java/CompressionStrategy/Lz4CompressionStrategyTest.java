@@ -0,0 +1,65 @@
+package CompressionStrategy;
+
+import compression.Lz4CompressionStrategy;
+import decompression.Lz4DecompressionStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+public class Lz4CompressionStrategyTest {
+
+	private static byte[] roundTrip(byte[] src) throws DataFormatException {
+		byte[] compressed = new Lz4CompressionStrategy().compress(src);
+		Assert.assertTrue(compressed.length <= Lz4CompressionStrategy.maxCompressedLength(src.length));
+		return new Lz4DecompressionStrategy().decompress(compressed, src.length);
+	}
+
+	@Test
+	public void compress_and_decompress_string() throws DataFormatException {
+		String src = "xzczxcxzcasdasdascxzczxcdjoiqjdiopaskdpo3dascxzc23#4xzczxcz";
+		Assert.assertEquals(src, new String(roundTrip(src.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void compress_and_decompress_repetitive_data() throws DataFormatException {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0;i<10000;i++) {
+			sb.append("line ").append(i % 100).append(" of repetitive text\n");
+		}
+		byte[] src = sb.toString().getBytes(StandardCharsets.UTF_8);
+		byte[] compressed = new Lz4CompressionStrategy().compress(src);
+		Assert.assertTrue(compressed.length < src.length / 4);
+		Assert.assertArrayEquals(src, new Lz4DecompressionStrategy().decompress(compressed, src.length));
+	}
+
+	@Test
+	public void compress_and_decompress_long_runs() throws DataFormatException {
+		byte[] src = new byte[1024*200];
+		byte[] random = new byte[1024*100];
+		new Random(0).nextBytes(random);
+		Arrays.fill(src, 0, 1024*100, (byte)'a');
+		System.arraycopy(random, 0, src, 1024*100, random.length);
+		Assert.assertArrayEquals(src, roundTrip(src));
+	}
+
+	@Test
+	public void compress_and_decompress_random_and_small_data() throws DataFormatException {
+		Random random = new Random(0);
+		for(int length : new int[] {0, 1, 5, 12, 13, 17, 1000, 1024*128}) {
+			byte[] src = new byte[length];
+			random.nextBytes(src);
+			Assert.assertArrayEquals(src, roundTrip(src));
+		}
+	}
+
+	@Test(expected = DataFormatException.class)
+	public void decompress_truncated_block() throws DataFormatException {
+		byte[] src = "abcabcabcabcabcabcabcabcabcabcabcabcabcabc".getBytes(StandardCharsets.UTF_8);
+		byte[] compressed = new Lz4CompressionStrategy().compress(src);
+		new Lz4DecompressionStrategy().decompress(Arrays.copyOf(compressed, compressed.length - 3), src.length);
+	}
+}
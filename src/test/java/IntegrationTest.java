@@ -1,14 +1,25 @@
+import compression.DeflaterCompressionStrategy;
+import decompression.InflaterDecompressionStrategy;
+import model.FileEntry;
+import model.IndexEntry;
 import org.junit.Assert;
 import org.junit.Test;
+import stream.ParallelCompressOutputStream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.DataFormatException;
 
 public class IntegrationTest {
@@ -28,6 +39,409 @@ public class IntegrationTest {
 		test_compress_and_decompress(inputDirectory, zipDirectory, outputDirectory);
 	}
 
+	@Test
+	public void test_list_and_extract_from_multipart() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		String inputDirectory = "src/test/resources/text";
+		String zipDirectory = "src/test/resources/zip";
+		String outputDirectory = "src/test/resources/dest";
+		YoungZip.compress(inputDirectory, zipDirectory, 64*1024, new DeflaterCompressionStrategy());
+
+		List<IndexEntry> indexEntries = YoungZip.list(zipDirectory);
+		Assert.assertEquals(Files.list(Paths.get(inputDirectory)).count(), indexEntries.size());
+		for(IndexEntry indexEntry : indexEntries) {
+			FileEntry fileEntry = indexEntry.getFileEntry();
+			Assert.assertEquals(Files.size(Paths.get(inputDirectory, fileEntry.getName())), fileEntry.getSize());
+		}
+
+		YoungZip.extract(zipDirectory, "text3.txt", outputDirectory);
+		Path extracted = Paths.get(outputDirectory, "text3.txt");
+		Assert.assertArrayEquals(Files.readAllBytes(Paths.get(inputDirectory, "text3.txt")), Files.readAllBytes(extracted));
+		Files.delete(extracted);
+		deleteFiles(zipDirectory);
+	}
+
+	@Test
+	public void test_extract_from_solid_archive() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		String inputDirectory = "src/test/resources/text";
+		String zipDirectory = "src/test/resources/zip";
+		String outputDirectory = "src/test/resources/dest";
+		YoungZip.compress(inputDirectory, zipDirectory, 64*1024, ParallelCompressOutputStream.builder().solid(true));
+
+		Assert.assertEquals(Files.list(Paths.get(inputDirectory)).count(), YoungZip.list(zipDirectory).size());
+		for(String name : new String[] {"text3.txt", "text7.txt"}) {
+			YoungZip.extract(zipDirectory, name, outputDirectory);
+			Path extracted = Paths.get(outputDirectory, name);
+			Assert.assertArrayEquals(Files.readAllBytes(Paths.get(inputDirectory, name)), Files.readAllBytes(extracted));
+			Files.delete(extracted);
+		}
+		deleteFiles(zipDirectory);
+	}
+
+	@Test
+	public void test_compress_and_decompress_incompressible_file() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		Path inputDirectory = Files.createTempDirectory("youngzip-random");
+		String zipDirectory = "src/test/resources/zip";
+		String outputDirectory = "src/test/resources/dest";
+		byte[] random = new byte[1024*1024*3 + 17];
+		new Random(0).nextBytes(random);
+		Files.write(inputDirectory.resolve("random.bin"), random);
+		Files.write(inputDirectory.resolve("text.txt"), "some text".getBytes());
+		YoungZip.compress(inputDirectory.toString(), zipDirectory, 1024*1024, new DeflaterCompressionStrategy());
+		long compressedSize = Files.walk(Paths.get(zipDirectory)).mapToLong(path -> path.toFile().length()).sum();
+		Assert.assertTrue(compressedSize < random.length + 8*1024);
+
+		YoungZip.decompress(zipDirectory, outputDirectory);
+		for(String name : new String[] {"random.bin", "text.txt"}) {
+			Path extracted = Paths.get(outputDirectory, name);
+			Assert.assertArrayEquals(Files.readAllBytes(inputDirectory.resolve(name)), Files.readAllBytes(extracted));
+			Files.delete(extracted);
+			Files.delete(inputDirectory.resolve(name));
+		}
+		Files.delete(inputDirectory);
+		deleteFiles(zipDirectory);
+	}
+
+	@Test
+	public void test_verify_and_detect_corruption() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		String inputDirectory = "src/test/resources/text";
+		String zipDirectory = "src/test/resources/zip";
+		YoungZip.compress(inputDirectory, zipDirectory, 64*1024, new DeflaterCompressionStrategy());
+		Assert.assertEquals(Files.list(Paths.get(inputDirectory)).count(), YoungZip.verify(zipDirectory, 2));
+
+		Path part = Files.walk(Paths.get(zipDirectory))
+			.filter(Files::isRegularFile)
+			.max(Comparator.comparingLong(path -> path.toFile().length()))
+			.get();
+		byte[] data = Files.readAllBytes(part);
+		data[data.length / 2] ^= 0x10;
+		Files.write(part, data);
+		try {
+			YoungZip.verify(zipDirectory, 2);
+			Assert.fail("corrupted archive was verified");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("mismatch") || e.getMessage().contains("invalid"));
+		} finally {
+			deleteFiles(zipDirectory);
+		}
+	}
+
+	@Test
+	public void test_incremental_compress_and_restore() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		Path inputDirectory = Files.createTempDirectory("youngzip-incremental");
+		Path fullDirectory = Files.createTempDirectory("youngzip-full");
+		Path incrementalDirectory = Files.createTempDirectory("youngzip-incremental-zip");
+		Path outputDirectory = Files.createTempDirectory("youngzip-restore");
+		Files.createDirectories(inputDirectory.resolve("sub/old"));
+		Files.write(inputDirectory.resolve("kept.txt"), "kept".getBytes());
+		Files.write(inputDirectory.resolve("changed.txt"), "before".getBytes());
+		Files.write(inputDirectory.resolve("deleted.txt"), "deleted".getBytes());
+		Files.write(inputDirectory.resolve("sub/old/file.txt"), "old".getBytes());
+		YoungZip.compress(inputDirectory.toString(), fullDirectory.toString(), 1024*1024, ParallelCompressOutputStream.builder());
+
+		Files.write(inputDirectory.resolve("changed.txt"), "after!".getBytes());
+		Files.delete(inputDirectory.resolve("deleted.txt"));
+		Files.delete(inputDirectory.resolve("sub/old/file.txt"));
+		Files.delete(inputDirectory.resolve("sub/old"));
+		Files.write(inputDirectory.resolve("sub/new.txt"), "new".getBytes());
+		YoungZip.compress(inputDirectory.toString(), incrementalDirectory.toString(), 1024*1024, ParallelCompressOutputStream.builder(), fullDirectory.toString());
+
+		List<String> written = YoungZip.list(incrementalDirectory.toString()).stream()
+			.map(indexEntry -> indexEntry.getFileEntry().getType() + " " + indexEntry.getFileEntry().getName())
+			.sorted()
+			.collect(Collectors.toList());
+		Assert.assertEquals(Arrays.asList(
+			"DELETED deleted.txt", "DELETED sub/old", "DELETED sub/old/file.txt", "FILE changed.txt", "FILE sub/new.txt"
+		), written);
+
+		YoungZip.restore(Arrays.asList(fullDirectory.toString(), incrementalDirectory.toString()), outputDirectory.toString(), 2);
+		for(Path directory : new Path[] {inputDirectory, outputDirectory}) {
+			List<String> tree;
+			try(Stream<Path> walk = Files.walk(directory)) {
+				tree = walk.map(path -> directory.relativize(path).toString()).sorted().collect(Collectors.toList());
+			}
+			Assert.assertEquals(Arrays.asList("", "changed.txt", "kept.txt", "sub", "sub/new.txt"), tree);
+		}
+		for(String name : new String[] {"changed.txt", "kept.txt", "sub/new.txt"}) {
+			Assert.assertArrayEquals(Files.readAllBytes(inputDirectory.resolve(name)), Files.readAllBytes(outputDirectory.resolve(name)));
+		}
+		for(Path directory : new Path[] {inputDirectory, fullDirectory, incrementalDirectory, outputDirectory}) {
+			try(Stream<Path> walk = Files.walk(directory)) {
+				for(Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void test_deduplicate_identical_files() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		Path inputDirectory = Files.createTempDirectory("youngzip-dedup");
+		Path zipDirectory = Files.createTempDirectory("youngzip-dedup-zip");
+		Path outputDirectory = Files.createTempDirectory("youngzip-dedup-dest");
+		Random random = new Random(0);
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < 1024*100) sb.append("duplicate line ").append(random.nextInt(1000)).append('\n');
+		byte[] text = sb.toString().getBytes();
+		byte[] large = new byte[1024*1024];
+		random.nextBytes(large);
+		byte[] sameSize = large.clone();
+		sameSize[large.length - 1]++;
+		Files.createDirectories(inputDirectory.resolve("sub"));
+		Files.write(inputDirectory.resolve("text.txt"), text);
+		Files.write(inputDirectory.resolve("sub/text-copy.txt"), text);
+		Files.write(inputDirectory.resolve("large.bin"), large);
+		Files.write(inputDirectory.resolve("sub/large-copy.bin"), large);
+		Files.write(inputDirectory.resolve("same-size.bin"), sameSize);
+
+		YoungZip.compress(inputDirectory.toString(), zipDirectory.toString(), 64*1024*1024, ParallelCompressOutputStream.builder());
+		long references = YoungZip.list(zipDirectory.toString()).stream()
+			.filter(indexEntry -> indexEntry.getFileEntry().getType() == FileEntry.FileType.FILE && indexEntry.getCompressedSize() < 1024)
+			.count();
+		Assert.assertEquals(2, references);
+		Assert.assertEquals(6, YoungZip.verify(zipDirectory.toString()));
+
+		YoungZip.decompress(zipDirectory.toString(), outputDirectory.toString());
+		for(String name : new String[] {"text.txt", "sub/text-copy.txt", "large.bin", "sub/large-copy.bin", "same-size.bin"}) {
+			Assert.assertArrayEquals(Files.readAllBytes(inputDirectory.resolve(name)), Files.readAllBytes(outputDirectory.resolve(name)));
+		}
+		deleteFiles(outputDirectory.toString());
+		for(String name : new String[] {"sub/text-copy.txt", "large.bin"}) {
+			YoungZip.extract(zipDirectory.toString(), name, outputDirectory.toString());
+			Assert.assertArrayEquals(Files.readAllBytes(inputDirectory.resolve(name)), Files.readAllBytes(outputDirectory.resolve(name)));
+		}
+		for(Path directory : new Path[] {inputDirectory, zipDirectory, outputDirectory}) {
+			try(Stream<Path> walk = Files.walk(directory)) {
+				for(Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void test_compress_to_stream_and_decompress_from_stream() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		String inputDirectory = "src/test/resources/text";
+		Path outputDirectory = Files.createTempDirectory("youngzip-stream");
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		YoungZip.compress(inputDirectory, archive, ParallelCompressOutputStream.builder());
+		YoungZip.decompress(new ByteArrayInputStream(archive.toByteArray()), outputDirectory.toString(), new InflaterDecompressionStrategy(), 2);
+
+		List<Path> inputFiles;
+		try(Stream<Path> walk = Files.list(Paths.get(inputDirectory))) {
+			inputFiles = walk.collect(Collectors.toList());
+		}
+		for(Path input : inputFiles) {
+			Assert.assertArrayEquals(Files.readAllBytes(input), Files.readAllBytes(outputDirectory.resolve(input.getFileName())));
+		}
+		try(Stream<Path> walk = Files.walk(outputDirectory)) {
+			Assert.assertEquals(inputFiles.size() + 1, walk.count());
+		}
+		deleteFiles(outputDirectory.toString());
+		Files.delete(outputDirectory);
+	}
+
+	@Test
+	public void test_stripe_parts_over_directories() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		String inputDirectory = "src/test/resources/text";
+		Path directory = Files.createTempDirectory("youngzip-stripe");
+		String zipDirectory = directory.resolve("zip").toString();
+		String stripeDirectory = directory.resolve("stripe").toString();
+		Path outputDirectory = directory.resolve("output");
+		YoungZip.compress(inputDirectory, zipDirectory, Arrays.asList(stripeDirectory), 64 * 1024, ParallelCompressOutputStream.builder(), null);
+		try(Stream<Path> walk = Files.list(Paths.get(stripeDirectory))) {
+			Assert.assertTrue(walk.count() > 0);
+		}
+		Assert.assertEquals(YoungZip.list(zipDirectory).size(), YoungZip.verify(zipDirectory, 2));
+		YoungZip.decompress(zipDirectory, outputDirectory.toString());
+
+		try(Stream<Path> walk = Files.list(Paths.get(inputDirectory))) {
+			for(Path input : walk.collect(Collectors.toList())) {
+				Assert.assertArrayEquals(Files.readAllBytes(input), Files.readAllBytes(outputDirectory.resolve(input.getFileName())));
+			}
+		}
+		try(Stream<Path> walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void test_merge_and_resplit_without_recompression() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		Path directory = Files.createTempDirectory("youngzip-merge");
+		Path inputDirectory = directory.resolve("input");
+		Files.createDirectories(inputDirectory.resolve("sub"));
+		Files.write(inputDirectory.resolve("kept.txt"), "kept".getBytes());
+		Files.write(inputDirectory.resolve("changed.txt"), "before".getBytes());
+		Files.write(inputDirectory.resolve("sub/deleted.txt"), "deleted".getBytes());
+		YoungZip.compress(inputDirectory.toString(), directory.resolve("full").toString(), 1024*1024, ParallelCompressOutputStream.builder());
+		Files.write(inputDirectory.resolve("changed.txt"), "after!".getBytes());
+		Files.delete(inputDirectory.resolve("sub/deleted.txt"));
+		YoungZip.compress(inputDirectory.toString(), directory.resolve("incremental").toString(), 1024*1024, ParallelCompressOutputStream.builder(), directory.resolve("full").toString());
+
+		String merged = directory.resolve("merged").toString();
+		int count = YoungZip.merge(Arrays.asList(directory.resolve("full").toString(), directory.resolve("incremental").toString()), merged, Collections.emptyList(), 1024*1024);
+		Assert.assertEquals(YoungZip.list(directory.resolve("full").toString()).size() + YoungZip.list(directory.resolve("incremental").toString()).size(), count);
+		Assert.assertEquals(count, YoungZip.verify(merged, 2));
+		String resplit = directory.resolve("resplit").toString();
+		YoungZip.resplit(merged, resplit, Collections.emptyList(), 100);
+		try(Stream<Path> walk = Files.list(Paths.get(resplit))) {
+			Assert.assertTrue(walk.count() > 3);
+		}
+		Assert.assertEquals(count, YoungZip.verify(resplit, 2));
+
+		for(String archive : new String[] {merged, resplit}) {
+			Path outputDirectory = directory.resolve("output");
+			YoungZip.decompress(archive, outputDirectory.toString());
+			List<String> tree;
+			try(Stream<Path> walk = Files.walk(outputDirectory)) {
+				tree = walk.map(path -> outputDirectory.relativize(path).toString()).sorted().collect(Collectors.toList());
+			}
+			Assert.assertEquals(Arrays.asList("", "changed.txt", "kept.txt", "sub"), tree);
+			Assert.assertArrayEquals("after!".getBytes(), Files.readAllBytes(outputDirectory.resolve("changed.txt")));
+
+			YoungZip.extract(archive, "changed.txt", directory.resolve("extract").toString());
+			Assert.assertArrayEquals("after!".getBytes(), Files.readAllBytes(directory.resolve("extract/changed.txt")));
+			try(Stream<Path> walk = Files.walk(outputDirectory)) {
+				walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+		try(Stream<Path> walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private static byte[] compressEntries(FileEntry... entries) throws IOException, InterruptedException, NoSuchAlgorithmException {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder().build(archive);
+		for(FileEntry entry : entries) {
+			pcos.putNextEntry(entry);
+			if(entry.getType() == FileEntry.FileType.FILE) {
+				pcos.write(new byte[(int)entry.getSize()]);
+			}
+			pcos.closeEntry();
+		}
+		pcos.finish();
+		pcos.close();
+		return archive.toByteArray();
+	}
+
+	@Test
+	public void test_reject_entries_outside_output_directory() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		Path directory = Files.createTempDirectory("youngzip-escape");
+		Path outside = directory.resolve("outside");
+		Files.createDirectories(outside);
+		Files.write(outside.resolve("kept.txt"), "kept".getBytes());
+		Path outputDirectory = directory.resolve("output");
+
+		FileEntry[][] archives = {
+			{new FileEntry("../outside", FileEntry.FileType.DELETED, 0)},
+			{new FileEntry("sub/../../outside/kept.txt", FileEntry.FileType.FILE, 3)},
+			{new FileEntry(outside.resolve("kept.txt").toString(), FileEntry.FileType.FILE, 3)},
+			{new FileEntry(".", FileEntry.FileType.DELETED, 0)},
+		};
+		for(FileEntry[] entries : archives) {
+			try {
+				YoungZip.decompress(new ByteArrayInputStream(compressEntries(entries)), outputDirectory.toString(), new InflaterDecompressionStrategy(), 2);
+				Assert.fail(entries[0].getName() + " was written");
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage().contains("outside of the output directory"));
+			}
+			Assert.assertArrayEquals("kept".getBytes(), Files.readAllBytes(outside.resolve("kept.txt")));
+			Assert.assertTrue(Files.isDirectory(outputDirectory));
+		}
+		try(Stream<Path> walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void test_reject_references_to_other_than_earlier_files() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		Path directory = Files.createTempDirectory("youngzip-reference");
+		Path outside = directory.resolve("outside.txt");
+		Files.write(outside, "secret".getBytes());
+		Path outputDirectory = directory.resolve("output");
+
+		String[][] references = {
+			// reference name, target name, and entries written before the reference
+			{"copy", "../outside.txt"},
+			{"copy", outside.toString()},
+			{"copy", "later"},
+			{"copy", "dir", "dir"},
+			{"copy", "file", "file", "file"},
+		};
+		for(String[] reference : references) {
+			ByteArrayOutputStream archive = new ByteArrayOutputStream();
+			ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder().build(archive);
+			if(reference.length > 2) {
+				pcos.putNextEntry(new FileEntry(reference[2], FileEntry.FileType.DIRECTORY, 0));
+				pcos.closeEntry();
+			}
+			if(reference.length > 3) {
+				// a directory replaces the file written before it
+				pcos.putNextEntry(new FileEntry(reference[1], FileEntry.FileType.FILE, 6));
+				pcos.write("secret".getBytes());
+				pcos.closeEntry();
+				pcos.putNextEntry(new FileEntry(reference[1], FileEntry.FileType.DIRECTORY, 0));
+				pcos.closeEntry();
+			}
+			pcos.putReference(new FileEntry(reference[0], FileEntry.FileType.FILE, 6), reference[1], 0);
+			pcos.putNextEntry(new FileEntry("later", FileEntry.FileType.FILE, 6));
+			pcos.write("secret".getBytes());
+			pcos.closeEntry();
+			pcos.finish();
+			pcos.close();
+			try {
+				YoungZip.decompress(new ByteArrayInputStream(archive.toByteArray()), outputDirectory.toString(), new InflaterDecompressionStrategy(), 2);
+				Assert.fail("reference to " + reference[1] + " was copied");
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains(reference[1]));
+			}
+			Assert.assertFalse(Files.exists(outputDirectory.resolve("copy")));
+		}
+		try(Stream<Path> walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void test_decompress_entries_changing_type_of_a_path() throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
+		Path outputDirectory = Files.createTempDirectory("youngzip-retype");
+		byte[] large = new byte[1024*1024*4];
+		new Random(0).nextBytes(large);
+		byte[] small = "small".getBytes();
+		// entries of the same names follow each other like in a merged archive
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder().build(archive);
+		for(int i=0;i<8;i++) {
+			pcos.putNextEntry(new FileEntry("x" + i, FileEntry.FileType.FILE, large.length));
+			pcos.write(large);
+			pcos.closeEntry();
+			pcos.putNextEntry(new FileEntry("x" + i, FileEntry.FileType.DIRECTORY, 0));
+			pcos.closeEntry();
+			pcos.putNextEntry(new FileEntry("x" + i + "/y", FileEntry.FileType.FILE, small.length));
+			pcos.write(small);
+			pcos.closeEntry();
+			pcos.putReference(new FileEntry("copy" + i, FileEntry.FileType.FILE, small.length), "x" + i + "/y", 0);
+			pcos.putNextEntry(new FileEntry("copy" + i, FileEntry.FileType.FILE, large.length));
+			pcos.write(large);
+			pcos.closeEntry();
+		}
+		pcos.finish();
+		pcos.close();
+
+		for(int run=0;run<5;run++) {
+			YoungZip.decompress(new ByteArrayInputStream(archive.toByteArray()), outputDirectory.toString(), new InflaterDecompressionStrategy(), 2);
+			for(int i=0;i<8;i++) {
+				Assert.assertTrue(Files.isDirectory(outputDirectory.resolve("x" + i)));
+				Assert.assertArrayEquals(small, Files.readAllBytes(outputDirectory.resolve("x" + i + "/y")));
+				Assert.assertArrayEquals(large, Files.readAllBytes(outputDirectory.resolve("copy" + i)));
+			}
+			try(Stream<Path> walk = Files.walk(outputDirectory)) {
+				walk.sorted(Comparator.reverseOrder()).filter(path -> !path.equals(outputDirectory)).forEach(path -> path.toFile().delete());
+			}
+		}
+		Files.delete(outputDirectory);
+	}
+
 	public void test_compress_and_decompress(String inputDirectory, String zipDirectory, String outputDirectory) throws InterruptedException, NoSuchAlgorithmException, IOException, DataFormatException {
 		long start = System.currentTimeMillis();
 		System.out.println("compressing...");
@@ -61,7 +475,11 @@ public class IntegrationTest {
 				Files.delete(outputFiles.get(i));
 		}
 
-		Files.walk(Paths.get(zipDirectory))
+		deleteFiles(zipDirectory);
+	}
+
+	private void deleteFiles(String directory) throws IOException {
+		Files.walk(Paths.get(directory))
 			.sorted(Comparator.reverseOrder())
 			.filter(path -> !Files.isDirectory(path))
 			.forEach(path -> {
@@ -1,11 +1,12 @@
 package stream;
 
-import com.sun.xml.internal.messaging.saaj.util.ByteInputStream;
 import compression.DeflaterCompressionStrategy;
 import decompression.InflaterDecompressionStrategy;
+import model.ByteSignature;
 import model.FileEntry;
 import org.junit.Assert;
 import org.junit.Test;
+import util.RWUtil;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -27,7 +28,7 @@ public class DecompressInputStreamTest {
 	@Test(expected = IllegalArgumentException.class)
 	public void init_null_decomp_strategy() throws IOException, DataFormatException {
 		new DecompressInputStream(
-			new ByteInputStream(),
+			new ByteArrayInputStream(new byte[0]),
 			null
 		);
 	}
@@ -55,4 +56,63 @@ public class DecompressInputStreamTest {
 		int len = dis.read();
 		Assert.assertEquals(len, -1);
 	}
+
+	@Test
+	public void decompress_legacy_archive() throws IOException, DataFormatException {
+		DeflaterCompressionStrategy deflater = new DeflaterCompressionStrategy();
+		ByteArrayOutputStream block = new ByteArrayOutputStream();
+		RWUtil.write64(block, ByteSignature.FILE.getValue());
+		RWUtil.write32(block, 3);
+		block.write("src".getBytes("utf-8"));
+		RWUtil.write16(block, FileEntry.FileType.FILE.getValue());
+		RWUtil.write64(block, 5);
+		block.write("hello".getBytes("utf-8"));
+		ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+		legacy.write(deflater.compress(block.toByteArray()));
+		block.reset();
+		RWUtil.write64(block, ByteSignature.END.getValue());
+		block.write(new byte[1024]);
+		legacy.write(deflater.compress(block.toByteArray()));
+
+		DecompressInputStream dis = new DecompressInputStream(
+			new ByteArrayInputStream(legacy.toByteArray()),
+			new InflaterDecompressionStrategy()
+		);
+		FileEntry fileEntry = dis.getNextEntry();
+		Assert.assertEquals("src", fileEntry.getName());
+		byte[] buf = new byte[16];
+		int len = dis.read(buf);
+		Assert.assertEquals("hello", new String(buf, 0, len, "utf-8"));
+		Assert.assertEquals(-1, dis.read(buf));
+		dis.closeEntry();
+		Assert.assertNull(dis.getNextEntry());
+	}
+
+	@Test
+	public void reject_corrupt_frame_lengths() throws IOException, NoSuchAlgorithmException, InterruptedException, DataFormatException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos = new ParallelCompressOutputStream(compressed, 1024*128, new DeflaterCompressionStrategy());
+		pcos.putNextEntry(new FileEntry("src", FileEntry.FileType.FILE, 5));
+		pcos.write("hello".getBytes("utf-8"));
+		pcos.closeEntry();
+		pcos.finish();
+		pcos.close();
+		byte[] archive = compressed.toByteArray();
+
+		// compressed and original length of the first frame, negative and too large
+		int[] fields = {ArchiveFormat.ARCHIVE_HEADER_LENGTH + 8, ArchiveFormat.ARCHIVE_HEADER_LENGTH + 12};
+		byte[][] values = {{(byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff}, {0x7f, 0x7f, 0x7f, 0x7f}};
+		for(int field : fields) {
+			for(byte[] value : values) {
+				byte[] corrupt = archive.clone();
+				System.arraycopy(value, 0, corrupt, field, value.length);
+				try {
+					new DecompressInputStream(new ByteArrayInputStream(corrupt), new InflaterDecompressionStrategy());
+					Assert.fail("corrupt frame header was read");
+				} catch (IOException e) {
+					Assert.assertTrue(e.getMessage().startsWith("corrupt BLOCK frame header"));
+				}
+			}
+		}
+	}
 }
@@ -1,8 +1,17 @@
 package stream;
 
+import org.junit.Assert;
 import org.junit.Test;
+import util.RWUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
 
 public class MultipartFileInputStreamTest {
 
@@ -20,4 +29,39 @@ public class MultipartFileInputStreamTest {
 	public void init_invalid_file_type() throws IOException {
 		new MultipartFileInputStream("abc");
 	}
+
+	@Test
+	public void read_and_seek_across_parts() throws IOException {
+		Path directory = Files.createTempDirectory("youngzip-multipart");
+		String filePath = directory.resolve("test.zip").toString();
+		byte[] src = new byte[10000];
+		new Random(0).nextBytes(src);
+		MultipartFileOutputStream mfos = new MultipartFileOutputStream(filePath, 1000);
+		for(int off=0;off<src.length;off+=300) {
+			mfos.write(src, off, Math.min(300, src.length - off));
+		}
+		mfos.close();
+
+		MultipartFileInputStream mfis = new MultipartFileInputStream(filePath, 64);
+		Assert.assertEquals(src.length, mfis.length());
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		byte[] buf = new byte[77];
+		int len;
+		while((len = mfis.read(buf)) != -1) {
+			read.write(buf, 0, len);
+		}
+		Assert.assertArrayEquals(src, read.toByteArray());
+
+		for(int position : new int[] {5000, 999, 1000, 0, 9990}) {
+			mfis.seek(position);
+			byte[] b = new byte[10];
+			RWUtil.readFully(mfis, b, 0, b.length);
+			Assert.assertArrayEquals(Arrays.copyOfRange(src, position, position + 10), b);
+		}
+		mfis.close();
+
+		try(Stream<Path> walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
 }
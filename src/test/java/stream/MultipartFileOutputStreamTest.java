@@ -1,8 +1,17 @@
 package stream;
 
+import org.junit.Assert;
 import org.junit.Test;
+import util.RWUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
 
 public class MultipartFileOutputStreamTest {
 
@@ -25,4 +34,154 @@ public class MultipartFileOutputStreamTest {
 	public void init_invalid_file_type() throws IOException {
 		new MultipartFileOutputStream("abc", 10);
 	}
+
+	@Test
+	public void split_single_write_into_many_parts() throws IOException {
+		Path directory = Files.createTempDirectory("youngzip-multipart");
+		String filePath = directory.resolve("test.zip").toString();
+		byte[] src = new byte[10000];
+		new Random(0).nextBytes(src);
+		MultipartFileOutputStream mfos = new MultipartFileOutputStream(filePath, 1000, 64);
+		mfos.write(src, 0, 10);
+		mfos.write(src, 10, 4500);
+		mfos.write(src, 4510, src.length - 4510);
+		mfos.close();
+
+		for(int i=0;i<9;i++) {
+			Assert.assertEquals(1000 + 12, Files.size(directory.resolve("test.z" + i)));
+		}
+		Assert.assertEquals(1000 + 12, Files.size(directory.resolve("test.zip")));
+		MultipartFileInputStream mfis = new MultipartFileInputStream(filePath);
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int len;
+		while((len = mfis.read(buf)) != -1) {
+			read.write(buf, 0, len);
+		}
+		mfis.close();
+		Assert.assertArrayEquals(src, read.toByteArray());
+		delete(directory);
+	}
+
+	@Test
+	public void truncate_part_larger_than_2gb_to_its_data() throws IOException {
+		Path directory = Files.createTempDirectory("youngzip-multipart");
+		String filePath = directory.resolve("test.zip").toString();
+		MultipartFileOutputStream mfos = new MultipartFileOutputStream(filePath, 4L*1024*1024*1024);
+		mfos.write(new byte[100]);
+		mfos.close();
+		Assert.assertEquals(100 + 12, Files.size(directory.resolve("test.zip")));
+		delete(directory);
+	}
+
+	@Test
+	public void stripe_parts_over_directories() throws IOException {
+		Path directory = Files.createTempDirectory("youngzip-multipart");
+		Path[] directories = {directory.resolve("a"), directory.resolve("b"), directory.resolve("c")};
+		Files.createDirectories(directories[0]);
+		String filePath = directories[0].resolve("test.zip").toString();
+		byte[] src = new byte[10500];
+		new Random(0).nextBytes(src);
+		MultipartFileOutputStream mfos = new MultipartFileOutputStream(filePath, 1000, 64,
+			Arrays.asList(directories[1].toString(), directories[2].toString()));
+		mfos.write(src, 0, 3000);
+		mfos.write(src, 3000, src.length - 3000);
+		mfos.close();
+
+		for(int i=0;i<10;i++) {
+			Assert.assertEquals(1000 + 12, Files.size(directories[i % 3].resolve("test.z" + i)));
+		}
+		Assert.assertEquals(500 + 12, Files.size(directories[10 % 3].resolve("test.zip")));
+		Assert.assertFalse(Files.exists(directories[0].resolve("test.zip")));
+		MultipartFileInputStream mfis = new MultipartFileInputStream(filePath, 256);
+		Assert.assertEquals(src.length, mfis.length());
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		byte[] buf = new byte[300];
+		int len;
+		while((len = mfis.read(buf)) != -1) {
+			read.write(buf, 0, len);
+		}
+		Assert.assertArrayEquals(src, read.toByteArray());
+		for(int position : new int[] {7999, 2000, 10490}) {
+			mfis.seek(position);
+			byte[] b = new byte[10];
+			RWUtil.readFully(mfis, b, 0, b.length);
+			Assert.assertArrayEquals(Arrays.copyOfRange(src, position, position + 10), b);
+		}
+		mfis.close();
+
+		// without stripe directories the archive is written to one directory again
+		new MultipartFileOutputStream(filePath, 1000).close();
+		Assert.assertFalse(Files.exists(directories[0].resolve("test.stripe")));
+		mfis = new MultipartFileInputStream(filePath);
+		Assert.assertEquals(0, mfis.length());
+		mfis.close();
+		delete(directory);
+	}
+
+	@Test
+	public void stripe_units_smaller_than_parts() throws IOException {
+		Path directory = Files.createTempDirectory("youngzip-multipart");
+		Path[] directories = {directory.resolve("a"), directory.resolve("b"), directory.resolve("c")};
+		Files.createDirectories(directories[0]);
+		String filePath = directories[0].resolve("test.zip").toString();
+		byte[] src = new byte[10550];
+		new Random(0).nextBytes(src);
+		MultipartFileOutputStream mfos = new MultipartFileOutputStream(filePath, 1000, 64,
+			Arrays.asList(directories[1].toString(), directories[2].toString()), 100);
+		mfos.write(src, 0, 3050);
+		mfos.write(src, 3050, src.length - 3050);
+		mfos.close();
+
+		// consecutive units go to consecutive directories
+		for(int i=0;i<3;i++) {
+			byte[] part = Files.readAllBytes(directories[i].resolve("test.z" + i));
+			Assert.assertArrayEquals(Arrays.copyOfRange(src, i * 100, i * 100 + 100), Arrays.copyOfRange(part, 12, 112));
+		}
+		for(int i=0;i<9;i++) {
+			Assert.assertEquals(1000 + 12, Files.size(directories[i % 3].resolve("test.z" + i)));
+		}
+		Assert.assertEquals(550 + 12, Files.size(directories[0].resolve("test.z9")));
+		Assert.assertEquals(500 + 12, Files.size(directories[1].resolve("test.z10")));
+		Assert.assertEquals(500 + 12, Files.size(directories[2].resolve("test.zip")));
+		MultipartFileInputStream mfis = new MultipartFileInputStream(filePath, 64);
+		Assert.assertEquals(src.length, mfis.length());
+		for(int position=0;position<src.length;position++) {
+			int unit = position / 100;
+			Assert.assertEquals(((unit / 3 * 100 + position % 100) / 1000) * 3 + unit % 3, mfis.getPartNumber(position));
+		}
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		byte[] buf = new byte[300];
+		int len;
+		while((len = mfis.read(buf)) != -1) {
+			read.write(buf, 0, len);
+		}
+		Assert.assertArrayEquals(src, read.toByteArray());
+		for(int position : new int[] {7999, 2995, 10540}) {
+			mfis.seek(position);
+			byte[] b = new byte[10];
+			RWUtil.readFully(mfis, b, 0, b.length);
+			Assert.assertArrayEquals(Arrays.copyOfRange(src, position, position + 10), b);
+		}
+
+		// transferred into a single directory with other part sizes
+		String copyPath = directory.resolve("copy.zip").toString();
+		try(MultipartFileOutputStream out = new MultipartFileOutputStream(copyPath, 4000)) {
+			mfis.transferTo(50, src.length - 50, out);
+		}
+		mfis.close();
+		try(MultipartFileInputStream copy = new MultipartFileInputStream(copyPath)) {
+			byte[] b = new byte[src.length - 50];
+			RWUtil.readFully(copy, b, 0, b.length);
+			Assert.assertArrayEquals(Arrays.copyOfRange(src, 50, src.length), b);
+			Assert.assertEquals(-1, copy.read());
+		}
+		delete(directory);
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try(Stream<Path> walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
 }
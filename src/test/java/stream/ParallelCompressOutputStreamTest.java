@@ -9,11 +9,19 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.DataFormatException;
 
 public class ParallelCompressOutputStreamTest {
@@ -33,6 +41,16 @@ public class ParallelCompressOutputStreamTest {
 		new ParallelCompressOutputStream(new ByteArrayOutputStream(), 23, null);
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void init_invalid_memory_limit() throws IOException {
+		new ParallelCompressOutputStream(new ByteArrayOutputStream(), 1024*128, new DeflaterCompressionStrategy(), 1024);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void init_invalid_threads() {
+		ParallelCompressOutputStream.builder().threads(0);
+	}
+
 	@Test(expected = IllegalStateException.class)
 	public void write_without_entry() throws IOException {
 		new ParallelCompressOutputStream(new ByteArrayOutputStream(), 1025, new DeflaterCompressionStrategy())
@@ -126,4 +144,409 @@ public class ParallelCompressOutputStreamTest {
 			dis.closeEntry();
 		}
 	}
+
+	@Test(timeout = 10000)
+	public void fail_when_compression_fails() throws IOException, NoSuchAlgorithmException, InterruptedException {
+		// the budget holds a few blocks, so the writer and the chunking thread both wait for the failed block
+		ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder()
+			.chunkSize(1024*64)
+			.memoryLimit(1024*64*4)
+			.compressionStrategy(new DeflaterCompressionStrategy() {
+				@Override public int compress(byte[] data, int offset, int length, byte[] out) {
+					throw new IllegalStateException("compression failed");
+				}
+			})
+			.threads(2)
+			.build(new ByteArrayOutputStream());
+		byte[] src = new byte[1024*64*32];
+		new Random(0).nextBytes(src);
+		try {
+			pcos.putNextEntry(new FileEntry("src", FileEntry.FileType.FILE, src.length));
+			pcos.write(src, 0, src.length);
+			pcos.closeEntry();
+			pcos.finish();
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		try {
+			pcos.close();
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void write_blocks_compressed_out_of_order_in_sequence() throws IOException, NoSuchAlgorithmException, InterruptedException, DataFormatException {
+		byte[] src = new byte[1024*64*32];
+		Random random = new Random(0);
+		for(int i=0;i<src.length;i++) {
+			src[i] = (byte)random.nextInt(16);
+		}
+		// every block takes less time than the one submitted before it, so later blocks complete first
+		AtomicInteger calls = new AtomicInteger();
+		DeflaterCompressionStrategy outOfOrder = new DeflaterCompressionStrategy() {
+			@Override public int compress(byte[] data, int offset, int length, byte[] out) {
+				try {
+					Thread.sleep(3 * (4 - calls.getAndIncrement() % 4));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.compress(data, offset, length, out);
+			}
+		};
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder()
+			.chunkSize(1024*64)
+			.compressionStrategy(outOfOrder)
+			.threads(4)
+			.build(compressed);
+		for(int i=0;i<4;i++) {
+			pcos.putNextEntry(new FileEntry("src" + i, FileEntry.FileType.FILE, src.length / 4));
+			pcos.write(src, i * src.length / 4, src.length / 4);
+			pcos.closeEntry();
+		}
+		pcos.finish();
+		pcos.close();
+		Assert.assertEquals(0, pcos.getInFlightBytes());
+
+		DecompressInputStream dis = new DecompressInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		for(int i=0;i<4;i++) {
+			Assert.assertEquals("src" + i, dis.getNextEntry().getName());
+			byte[] buf = new byte[1024*8];
+			int len;
+			while((len = dis.read(buf)) != -1) {
+				decompressed.write(buf, 0, len);
+			}
+			dis.closeEntry();
+		}
+		Assert.assertNull(dis.getNextEntry());
+		dis.close();
+		Assert.assertArrayEquals(src, decompressed.toByteArray());
+	}
+
+	@Test
+	public void memory_limit_with_slow_output() throws IOException, NoSuchAlgorithmException, InterruptedException {
+		byte[] src = new byte[1024*1024*8];
+		new Random(0).nextBytes(src);
+		OutputStream slowOutput = new ByteArrayOutputStream() {
+			@Override public synchronized void write(byte[] b, int off, int len) {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.write(b, off, len);
+			}
+		};
+
+		int chunkSize = 1024*128;
+		long memoryLimit = 1024*1024;
+		ParallelCompressOutputStream pcos =
+			new ParallelCompressOutputStream(slowOutput, chunkSize, new DeflaterCompressionStrategy(), memoryLimit);
+		pcos.putNextEntry(new FileEntry("src", FileEntry.FileType.FILE, src.length));
+		for(int i=0;i<1024*8;i++) {
+			pcos.write(src, i*1024, 1024);
+		}
+		pcos.closeEntry();
+		pcos.finish();
+		pcos.close();
+		Assert.assertTrue(pcos.getPeakInFlightBytes() <= memoryLimit + chunkSize);
+		Assert.assertEquals(0, pcos.getInFlightBytes());
+	}
+
+	@Test
+	public void compress_with_external_executor() throws IOException, NoSuchAlgorithmException, DataFormatException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		byte[] src = new byte[1024*1024];
+		new Random(0).nextBytes(src);
+		for(int i=0;i<2;i++) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder().executor(executor).build(compressed);
+			pcos.putNextEntry(new FileEntry("src", FileEntry.FileType.FILE, src.length));
+			pcos.write(src);
+			pcos.closeEntry();
+			pcos.finish();
+			pcos.close();
+
+			DecompressInputStream dis = new DecompressInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+			dis.getNextEntry();
+			ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024];
+			int len = -1;
+			while((len = dis.read(buf)) != -1) {
+				decompressed.write(buf, 0, len);
+			}
+			Assert.assertArrayEquals(src, decompressed.toByteArray());
+		}
+		Assert.assertFalse(executor.isShutdown());
+		executor.shutdown();
+	}
+
+	@Test
+	public void store_incompressible_data() throws IOException, NoSuchAlgorithmException, InterruptedException {
+		byte[] src = new byte[1024*1024];
+		new Random(0).nextBytes(src);
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos = new ParallelCompressOutputStream(compressed);
+		pcos.putNextEntry(new FileEntry("src", FileEntry.FileType.FILE, src.length));
+		pcos.write(src);
+		pcos.closeEntry();
+		pcos.finish();
+		pcos.close();
+		Assert.assertTrue(compressed.size() < src.length + 4096);
+	}
+
+	@Test
+	public void split_large_write_into_chunks() throws IOException, NoSuchAlgorithmException, InterruptedException, DataFormatException {
+		int chunkSize = 1024*64;
+		byte[] src = new byte[1024*1024 + 100];
+		new Random(0).nextBytes(src);
+		for(int i=0;i<src.length/2;i++) {
+			src[i] = (byte)(i % 31);
+		}
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder().chunkSize(chunkSize).storeIncompressible(false).build(compressed);
+		pcos.putNextEntry(new FileEntry("src", FileEntry.FileType.FILE, src.length));
+		pcos.write(src);
+		pcos.closeEntry();
+		pcos.finish();
+		pcos.close();
+
+		ByteArrayInputStream in = new ByteArrayInputStream(compressed.toByteArray());
+		ArchiveFormat.Header header = ArchiveFormat.readArchiveHeader(new PushbackInputStream(in, ArchiveFormat.ARCHIVE_HEADER_LENGTH));
+		ArchiveFormat.Frame frame;
+		int blocks = 0;
+		while(ArchiveFormat.isBlockFrame(frame = ArchiveFormat.readFrame(in, header.getVersion()))) {
+			Assert.assertTrue(frame.getOriginalLength() <= chunkSize);
+			blocks++;
+		}
+		Assert.assertEquals(src.length / chunkSize + 1, blocks);
+
+		DecompressInputStream dis = new ParallelDecompressInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+		dis.getNextEntry();
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024*8];
+		int len;
+		while((len = dis.read(buf)) != -1) {
+			decompressed.write(buf, 0, len);
+		}
+		dis.close();
+		Assert.assertArrayEquals(src, decompressed.toByteArray());
+	}
+
+	private static List<Integer> compressContentDefined(byte[] src, int chunkSize) throws IOException, InterruptedException, NoSuchAlgorithmException, DataFormatException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder()
+			.chunkSize(chunkSize)
+			.storeIncompressible(false)
+			.contentDefinedChunking(true)
+			.build(compressed);
+		pcos.putNextEntry(new FileEntry("src", FileEntry.FileType.FILE, src.length));
+		pcos.write(src);
+		pcos.closeEntry();
+		pcos.finish();
+		pcos.close();
+
+		ByteArrayInputStream in = new ByteArrayInputStream(compressed.toByteArray());
+		ArchiveFormat.Header header = ArchiveFormat.readArchiveHeader(new PushbackInputStream(in, ArchiveFormat.ARCHIVE_HEADER_LENGTH));
+		ArchiveFormat.Frame frame;
+		List<Integer> blockLengths = new ArrayList<>();
+		while(ArchiveFormat.isBlockFrame(frame = ArchiveFormat.readFrame(in, header.getVersion()))) {
+			Assert.assertTrue(frame.getOriginalLength() <= chunkSize);
+			blockLengths.add(frame.getOriginalLength());
+		}
+
+		DecompressInputStream dis = new ParallelDecompressInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+		dis.getNextEntry();
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024*8];
+		int len;
+		while((len = dis.read(buf)) != -1) {
+			decompressed.write(buf, 0, len);
+		}
+		dis.close();
+		Assert.assertArrayEquals(src, decompressed.toByteArray());
+		return blockLengths;
+	}
+
+	@Test
+	public void cut_blocks_at_content_defined_boundaries() throws IOException, NoSuchAlgorithmException, InterruptedException, DataFormatException {
+		int chunkSize = 1024*64;
+		byte[] src = new byte[1024*1024*2];
+		Random random = new Random(0);
+		random.nextBytes(src);
+		byte[] inserted = new byte[src.length + 10];
+		System.arraycopy(src, 0, inserted, 0, 1000);
+		System.arraycopy(src, 1000, inserted, 1010, src.length - 1000);
+
+		List<Integer> blocks = compressContentDefined(src, chunkSize);
+		List<Integer> insertedBlocks = compressContentDefined(inserted, chunkSize);
+		Assert.assertTrue(blocks.size() > src.length / chunkSize + 1);
+		// blocks after the insertion hold the same content as before
+		int shared = 0;
+		while(shared < blocks.size() - 1
+			&& blocks.get(blocks.size() - 1 - shared).equals(insertedBlocks.get(insertedBlocks.size() - 1 - shared))) {
+			shared++;
+		}
+		Assert.assertTrue(shared >= blocks.size() - 3);
+	}
+
+	private static byte[] compressEntries(List<FileEntry> entries, List<byte[]> contents, boolean solid) throws IOException, InterruptedException, NoSuchAlgorithmException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder()
+			.chunkSize(1024*64)
+			.solid(solid)
+			.build(compressed);
+		for(int i=0;i<entries.size();i++) {
+			pcos.putNextEntry(entries.get(i));
+			if(contents.get(i) != null) pcos.write(contents.get(i));
+			pcos.closeEntry();
+		}
+		pcos.finish();
+		pcos.close();
+		return compressed.toByteArray();
+	}
+
+	@Test
+	public void compress_small_entries_in_solid_mode() throws IOException, InterruptedException, NoSuchAlgorithmException, DataFormatException {
+		Random random = new Random(0);
+		List<FileEntry> entries = new ArrayList<>();
+		List<byte[]> contents = new ArrayList<>();
+		for(int i=0;i<300;i++) {
+			if(i % 50 == 0) {
+				entries.add(new FileEntry("dir" + i, FileEntry.FileType.DIRECTORY, 4096));
+				contents.add(null);
+				continue;
+			}
+			StringBuilder sb = new StringBuilder();
+			int length = i == 120 ? 1024*200 : random.nextInt(2000);
+			while(sb.length() < length) sb.append("small file ").append(random.nextInt(100)).append('\n');
+			byte[] content = sb.toString().getBytes();
+			// size in header does not match the data of file 77, so it can't be packed
+			entries.add(new FileEntry("file" + i, FileEntry.FileType.FILE, i == 77 ? content.length + 10 : content.length));
+			contents.add(content);
+		}
+		byte[] solidArchive = compressEntries(entries, contents, true);
+		byte[] archive = compressEntries(entries, contents, false);
+		Assert.assertTrue(solidArchive.length < archive.length);
+
+		for(DecompressInputStream dis : Arrays.asList(
+			new DecompressInputStream(new ByteArrayInputStream(solidArchive)),
+			new ParallelDecompressInputStream(new ByteArrayInputStream(solidArchive), new InflaterDecompressionStrategy(), 4))) {
+			for(int i=0;i<entries.size();i++) {
+				FileEntry fileEntry = dis.getNextEntry();
+				Assert.assertEquals(entries.get(i).getName(), fileEntry.getName());
+				Assert.assertEquals(entries.get(i).getType(), fileEntry.getType());
+				ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+				byte[] buf = new byte[777];
+				int len;
+				while((len = dis.read(buf)) != -1) {
+					decompressed.write(buf, 0, len);
+				}
+				dis.closeEntry();
+				if(contents.get(i) != null) {
+					Assert.assertArrayEquals(contents.get(i), decompressed.toByteArray());
+				}
+			}
+			Assert.assertNull(dis.getNextEntry());
+			dis.close();
+		}
+	}
+
+	@Test
+	public void store_file_region_as_stored_data() throws IOException, InterruptedException, NoSuchAlgorithmException, DataFormatException {
+		Path file = Files.createTempFile("youngzip-store", ".bin");
+		byte[] random = new byte[1024*1024*2 + 100];
+		new Random(0).nextBytes(random);
+		Files.write(file, random);
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write("head".getBytes());
+		expected.write(random);
+		expected.write("tail".getBytes());
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder().build(compressed);
+		pcos.putNextEntry(new FileEntry("file", FileEntry.FileType.FILE, expected.size()));
+		pcos.write("head".getBytes());
+		pcos.store(random, 0, 50);
+		pcos.storeFrom(file, 50, random.length - 50);
+		pcos.write("tail".getBytes());
+		pcos.closeEntry();
+		pcos.putNextEntry(new FileEntry("next", FileEntry.FileType.FILE, 4));
+		pcos.write("next".getBytes());
+		pcos.closeEntry();
+		pcos.finish();
+		pcos.close();
+		Files.delete(file);
+
+		DecompressInputStream dis = new ParallelDecompressInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+		for(byte[] content : Arrays.asList(expected.toByteArray(), "next".getBytes())) {
+			dis.getNextEntry();
+			ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024];
+			int len;
+			while((len = dis.read(buf)) != -1) {
+				decompressed.write(buf, 0, len);
+			}
+			dis.closeEntry();
+			Assert.assertArrayEquals(content, decompressed.toByteArray());
+		}
+		Assert.assertNull(dis.getNextEntry());
+		dis.close();
+	}
+
+	@Test
+	public void write_reference_entries() throws IOException, InterruptedException, NoSuchAlgorithmException, DataFormatException {
+		byte[] content = "content of the original entry".getBytes();
+		for(boolean solid : new boolean[] {false, true}) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			ParallelCompressOutputStream pcos = ParallelCompressOutputStream.builder().solid(solid).build(compressed);
+			pcos.putNextEntry(new FileEntry("original", FileEntry.FileType.FILE, content.length));
+			pcos.write(content);
+			pcos.closeEntry();
+			pcos.putReference(new FileEntry("copy", FileEntry.FileType.FILE, content.length), "original", 0);
+			pcos.putNextEntry(new FileEntry("next", FileEntry.FileType.FILE, 4));
+			pcos.write("next".getBytes());
+			pcos.closeEntry();
+			pcos.finish();
+			pcos.close();
+
+			DecompressInputStream dis = new ParallelDecompressInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+			String[] names = {"original", "copy", "next"};
+			String[] references = {null, "original", null};
+			byte[][] contents = {content, new byte[0], "next".getBytes()};
+			for(int i=0;i<names.length;i++) {
+				FileEntry fileEntry = dis.getNextEntry();
+				Assert.assertEquals(names[i], fileEntry.getName());
+				Assert.assertEquals(references[i], dis.getReference());
+				ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+				byte[] buf = new byte[1024];
+				int len;
+				while((len = dis.read(buf)) != -1) {
+					decompressed.write(buf, 0, len);
+				}
+				dis.closeEntry();
+				Assert.assertArrayEquals(contents[i], decompressed.toByteArray());
+			}
+			Assert.assertNull(dis.getNextEntry());
+			dis.close();
+		}
+	}
+
+	@Test
+	public void compress_same_content_into_same_archive() throws IOException, InterruptedException, NoSuchAlgorithmException {
+		List<FileEntry> entries = Arrays.asList(
+			new FileEntry("dir", FileEntry.FileType.DIRECTORY, 0),
+			new FileEntry("dir/file", FileEntry.FileType.FILE, 5)
+		);
+		List<byte[]> contents = Arrays.asList(null, "hello".getBytes());
+		Assert.assertArrayEquals(compressEntries(entries, contents, false), compressEntries(entries, contents, false));
+	}
 }
@@ -0,0 +1,147 @@
+package stream;
+
+import compression.DeflaterCompressionStrategy;
+import compression.Lz4CompressionStrategy;
+import decompression.InflaterDecompressionStrategy;
+import model.FileEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+
+public class ParallelDecompressInputStreamTest {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void init_null_inputstream() throws IOException, DataFormatException {
+		new ParallelDecompressInputStream(null, new InflaterDecompressionStrategy(), 4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void init_invalid_threads() throws IOException, DataFormatException {
+		new ParallelDecompressInputStream(new ByteArrayInputStream(new byte[0]), new InflaterDecompressionStrategy(), 0);
+	}
+
+	/*
+	 * Live threads started after the given snapshot of threads.
+	 */
+	private static Set<Thread> threadsStartedAfter(Set<Thread> before) {
+		Set<Thread> threads = new HashSet<>();
+		for(Thread thread : Thread.getAllStackTraces().keySet()) {
+			if(thread.isAlive() && !before.contains(thread)) {
+				threads.add(thread);
+			}
+		}
+		return threads;
+	}
+
+	@Test
+	public void corrupt_first_frame_leaves_no_threads() throws IOException, NoSuchAlgorithmException, DataFormatException, InterruptedException {
+		// more frames than the read ahead window, so the pool is not shut down by reaching the end
+		byte[] src = new byte[1024*128*20];
+		new Random(0).nextBytes(src);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos =
+			new ParallelCompressOutputStream(compressed, 1024*128, new DeflaterCompressionStrategy());
+		pcos.putNextEntry(new FileEntry("src", FileEntry.FileType.FILE, src.length));
+		pcos.write(src);
+		pcos.closeEntry();
+		pcos.finish();
+		pcos.close();
+		byte[] archive = compressed.toByteArray();
+		for(int i=200;i<260;i++) {
+			archive[i] ^= 0x5a;
+		}
+
+		Set<Thread> before = new HashSet<>(Thread.getAllStackTraces().keySet());
+		try {
+			new ParallelDecompressInputStream(new ByteArrayInputStream(archive), new InflaterDecompressionStrategy(), 2);
+			Assert.fail("corrupt frame was read");
+		} catch (IOException e) {
+			// checksum mismatch of the first frame
+		}
+		for(int i=0;i<100 && !threadsStartedAfter(before).isEmpty();i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(new HashSet<Thread>(), threadsStartedAfter(before));
+	}
+
+	@Test
+	public void compress_and_decompress_multiple_files() throws IOException, NoSuchAlgorithmException, DataFormatException, InterruptedException {
+		Random random = new Random(0);
+		byte[][] srcs = new byte[5][];
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos =
+			new ParallelCompressOutputStream(compressed, 1024*128, new DeflaterCompressionStrategy());
+		for(int i=0;i<srcs.length;i++) {
+			srcs[i] = new byte[1024*300*i + 17];
+			random.nextBytes(srcs[i]);
+			pcos.putNextEntry(new FileEntry("src" + i, FileEntry.FileType.FILE, srcs[i].length));
+			pcos.write(srcs[i]);
+			pcos.closeEntry();
+		}
+		pcos.finish();
+		pcos.close();
+
+		DecompressInputStream dis = new ParallelDecompressInputStream(
+			new ByteArrayInputStream(compressed.toByteArray()),
+			new InflaterDecompressionStrategy(),
+			4
+		);
+		for(int i=0;i<srcs.length;i++) {
+			FileEntry fileEntry = dis.getNextEntry();
+			Assert.assertEquals("src" + i, fileEntry.getName());
+			ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024];
+			int len = -1;
+			while((len = dis.read(buf)) != -1) {
+				decompressed.write(buf, 0, len);
+			}
+			dis.closeEntry();
+			Assert.assertArrayEquals(srcs[i], decompressed.toByteArray());
+		}
+		Assert.assertNull(dis.getNextEntry());
+		dis.close();
+	}
+
+	@Test
+	public void decompress_lz4_archive_with_default_strategy() throws IOException, NoSuchAlgorithmException, DataFormatException, InterruptedException {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0;i<50000;i++) {
+			sb.append("entry ").append(i).append('\n');
+		}
+		byte[] src = sb.toString().getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelCompressOutputStream pcos =
+			new ParallelCompressOutputStream(compressed, 1024*64, new Lz4CompressionStrategy());
+		pcos.putNextEntry(new FileEntry("src", FileEntry.FileType.FILE, src.length));
+		pcos.write(src);
+		pcos.closeEntry();
+		pcos.finish();
+		pcos.close();
+
+		DecompressInputStream dis = new ParallelDecompressInputStream(
+			new ByteArrayInputStream(compressed.toByteArray()),
+			new InflaterDecompressionStrategy(),
+			4
+		);
+		Assert.assertEquals("src", dis.getNextEntry().getName());
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int len = -1;
+		while((len = dis.read(buf)) != -1) {
+			decompressed.write(buf, 0, len);
+		}
+		dis.closeEntry();
+		Assert.assertArrayEquals(src, decompressed.toByteArray());
+		Assert.assertNull(dis.getNextEntry());
+		dis.close();
+	}
+}
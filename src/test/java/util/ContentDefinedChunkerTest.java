@@ -0,0 +1,84 @@
+package util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class ContentDefinedChunkerTest {
+	private static List<Integer> chunk(ContentDefinedChunker chunker, byte[] data, int writeSize) {
+		List<Integer> boundaries = new ArrayList<>();
+		int start = 0;
+		for(int off = 0; off < data.length; ) {
+			int len = Math.min(writeSize, data.length - off);
+			int n = chunker.findBoundary(data, off, len);
+			if(n < 0) {
+				off += len;
+			} else {
+				off += n;
+				boundaries.add(off - start);
+				start = off;
+			}
+		}
+		if(start < data.length) boundaries.add(data.length - start);
+		chunker.reset();
+		return boundaries;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void init_average_not_power_of_two() {
+		new ContentDefinedChunker(1000, 3000, 8000);
+	}
+
+	@Test
+	public void chunk_sizes_within_bounds() {
+		byte[] data = new byte[1024*1024*4];
+		new Random(0).nextBytes(data);
+		ContentDefinedChunker chunker = new ContentDefinedChunker(1024*2, 1024*8, 1024*32);
+		List<Integer> sizes = chunk(chunker, data, 1024*64);
+		long total = 0;
+		for(int i=0;i<sizes.size();i++) {
+			if(i < sizes.size() - 1) {
+				Assert.assertTrue(sizes.get(i) >= 1024*2);
+			}
+			Assert.assertTrue(sizes.get(i) <= 1024*32);
+			total += sizes.get(i);
+		}
+		Assert.assertEquals(data.length, total);
+		double average = (double)total / sizes.size();
+		Assert.assertTrue(average > 1024*5 && average < 1024*14);
+		// boundaries do not depend on how the data is written
+		Assert.assertEquals(sizes, chunk(chunker, data, 777));
+	}
+
+	@Test
+	public void boundaries_realign_after_insertion() {
+		byte[] data = new byte[1024*1024];
+		Random random = new Random(1);
+		random.nextBytes(data);
+		byte[] inserted = new byte[data.length + 100];
+		random.nextBytes(inserted);
+		System.arraycopy(data, 0, inserted, 0, 5000);
+		System.arraycopy(data, 5000, inserted, 5100, data.length - 5000);
+
+		ContentDefinedChunker chunker = new ContentDefinedChunker(1024*2, 1024*8, 1024*32);
+		Set<Long> ends = new HashSet<>();
+		long end = 0;
+		for(int size : chunk(chunker, data, data.length)) {
+			end += size;
+			ends.add(end + 100);
+		}
+		List<Integer> sizes = chunk(chunker, inserted, inserted.length);
+		int shared = 0;
+		end = 0;
+		for(int size : sizes) {
+			end += size;
+			if(ends.contains(end)) shared++;
+		}
+		Assert.assertTrue(shared >= sizes.size() - 3);
+	}
+}
@@ -0,0 +1,36 @@
+package util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+public class Crc32cTest {
+	@Test
+	public void check_value() {
+		byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+		Assert.assertEquals(0xe3069283L, Crc32c.value(data, 0, data.length));
+		Crc32c crc32c = new Crc32c();
+		crc32c.update(data, 0, data.length);
+		Assert.assertEquals(0xe3069283L, crc32c.getValue());
+	}
+
+	@Test
+	public void table_implementation_matches_platform() {
+		byte[] data = new byte[1024*64 + 13];
+		new Random(0).nextBytes(data);
+		Checksum platform = Crc32c.create();
+		Crc32c table = new Crc32c();
+		for(int off = 0, len = 1; off + len <= data.length; off += len, len = len * 3 + 1) {
+			platform.update(data, off, len);
+			table.update(data, off, len);
+			table.update(data[off]);
+			platform.update(data[off]);
+			Assert.assertEquals(platform.getValue(), table.getValue());
+		}
+		table.reset();
+		Assert.assertEquals(0, table.getValue());
+	}
+}
@@ -0,0 +1,63 @@
+package util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+public class DuplicateFinderTest {
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("youngzip-duplicates");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try(Stream<Path> walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void find_duplicates_among_files_of_the_same_size() throws IOException {
+		Random random = new Random(0);
+		byte[][] contents = new byte[200][];
+		DuplicateFinder finder = new DuplicateFinder();
+		for(int i=0;i<contents.length;i++) {
+			contents[i] = new byte[1000];
+			random.nextBytes(contents[i]);
+			Path path = Files.write(directory.resolve("file" + i), contents[i]);
+			Assert.assertNull(finder.find("file" + i, path, 1000, i % 2 == 0 ? contents[i] : null));
+		}
+		for(int i : new int[] {0, 1, 150, 199}) {
+			Path path = Files.write(directory.resolve("copy" + i), contents[i]);
+			DuplicateFinder.Original original = finder.find("copy" + i, path, 1000, i % 2 == 0 ? null : contents[i]);
+			Assert.assertNotNull(original);
+			Assert.assertEquals("file" + i, original.getName());
+			Assert.assertEquals(Crc32c.value(contents[i], 0, 1000), original.getChecksum());
+		}
+		Assert.assertNull(finder.find("empty", Files.write(directory.resolve("empty"), new byte[0]), 0, new byte[0]));
+	}
+
+	@Test
+	public void skip_originals_deleted_before_they_are_checksummed() throws IOException {
+		DuplicateFinder finder = new DuplicateFinder();
+		byte[] content = new byte[100];
+		Path first = Files.write(directory.resolve("first"), content);
+		Assert.assertNull(finder.find("first", first, 100, null));
+		Files.delete(first);
+		Path second = Files.write(directory.resolve("second"), content);
+		Assert.assertNull(finder.find("second", second, 100, null));
+		Path third = Files.write(directory.resolve("third"), content);
+		Assert.assertEquals("second", finder.find("third", third, 100, null).getName());
+	}
+}
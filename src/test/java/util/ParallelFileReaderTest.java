@@ -0,0 +1,84 @@
+package util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+public class ParallelFileReaderTest {
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("youngzip-reader");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try(Stream<Path> walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void init_invalid_threads() {
+		new ParallelFileReader(new ArrayList<>(), 0, 4, 1024);
+	}
+
+	@Test
+	public void read_files_in_order() throws IOException {
+		Random random = new Random(0);
+		List<Path> paths = new ArrayList<>();
+		List<byte[]> contents = new ArrayList<>();
+		for(int i=0;i<200;i++) {
+			byte[] content = new byte[i % 10 == 0 ? 4096 + i : random.nextInt(1024)];
+			random.nextBytes(content);
+			Path path = directory.resolve("file" + i);
+			Files.write(path, content);
+			paths.add(path);
+			contents.add(content);
+		}
+		try(ParallelFileReader reader = new ParallelFileReader(paths, 4, 8, 1024)) {
+			for(int i=0;i<paths.size();i++) {
+				Assert.assertTrue(reader.hasNext());
+				ParallelFileReader.FileData fileData = reader.next();
+				Assert.assertEquals(paths.get(i), fileData.getPath());
+				if(contents.get(i).length > 1024) {
+					Assert.assertFalse(fileData.isLoaded());
+				} else {
+					Assert.assertTrue(fileData.isLoaded());
+					Assert.assertArrayEquals(contents.get(i), Arrays.copyOf(fileData.getBuffer(), fileData.getLength()));
+				}
+				reader.release(fileData);
+			}
+			Assert.assertFalse(reader.hasNext());
+		}
+	}
+
+	@Test
+	public void read_after_missing_file() throws IOException {
+		Path first = Files.write(directory.resolve("first"), new byte[] {1, 2, 3});
+		Path last = Files.write(directory.resolve("last"), new byte[] {4, 5});
+		List<Path> paths = Arrays.asList(first, directory.resolve("missing"), last);
+		try(ParallelFileReader reader = new ParallelFileReader(paths, 2, 2, 1024)) {
+			Assert.assertEquals(3, reader.next().getLength());
+			try {
+				reader.next();
+				Assert.fail();
+			} catch (NoSuchFileException e) {
+			}
+			Assert.assertEquals(2, reader.next().getLength());
+		}
+	}
+}
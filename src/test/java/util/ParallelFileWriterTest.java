@@ -0,0 +1,90 @@
+package util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+public class ParallelFileWriterTest {
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("youngzip-writer");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try(Stream<Path> walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void init_invalid_threads() {
+		new ParallelFileWriter(0, 4, 1024);
+	}
+
+	@Test
+	public void write_files_in_parallel() throws IOException {
+		Random random = new Random(0);
+		byte[][] contents = new byte[100][];
+		try(ParallelFileWriter writer = new ParallelFileWriter(4, 8, 1024)) {
+			for(int i=0;i<contents.length;i++) {
+				contents[i] = new byte[i % 10 == 0 ? 4096 + i : random.nextInt(1024)];
+				random.nextBytes(contents[i]);
+				Path path = directory.resolve("dir" + i % 7).resolve("file" + i);
+				writer.createFile(path);
+				for(int position=0;position<contents[i].length;position+=writer.getBufferSize()) {
+					byte[] buffer = writer.acquire();
+					int length = Math.min(buffer.length, contents[i].length - position);
+					System.arraycopy(contents[i], position, buffer, 0, length);
+					writer.write(path, buffer, length, position);
+				}
+				writer.closeFile(path);
+			}
+			writer.copyFile(directory.resolve("dir0").resolve("file0"), directory.resolve("copy"));
+		}
+		for(int i=0;i<contents.length;i++) {
+			Assert.assertArrayEquals(contents[i], Files.readAllBytes(directory.resolve("dir" + i % 7).resolve("file" + i)));
+		}
+		Assert.assertArrayEquals(contents[0], Files.readAllBytes(directory.resolve("copy")));
+	}
+
+	@Test
+	public void truncate_file_to_written_length() throws IOException {
+		Path path = directory.resolve("file");
+		Files.write(path, new byte[4096]);
+		try(ParallelFileWriter writer = new ParallelFileWriter(2, 2, 1024)) {
+			writer.createFile(path);
+			byte[] buffer = writer.acquire();
+			Arrays.fill(buffer, 0, 10, (byte)1);
+			writer.write(path, buffer, 10, 0);
+			writer.closeFile(path);
+		}
+		byte[] expected = new byte[10];
+		Arrays.fill(expected, (byte)1);
+		Assert.assertArrayEquals(expected, Files.readAllBytes(path));
+	}
+
+	@Test
+	public void throw_failure_of_write_thread() throws IOException {
+		Path file = Files.write(directory.resolve("file"), new byte[1]);
+		ParallelFileWriter writer = new ParallelFileWriter(2, 2, 1024);
+		// parent of the path is a file, so the file can't be created
+		writer.createFile(file.resolve("child"));
+		try {
+			writer.close();
+			Assert.fail();
+		} catch (IOException e) {
+		}
+	}
+}